@@ -20,6 +20,9 @@
 import java.awt.Color;
 import java.io.FileInputStream;
 import java.io.IOException;
+import java.text.ParsePosition;
+import java.text.SimpleDateFormat;
+import java.util.Date;
 import java.util.Enumeration;
 import java.util.Properties;
 
@@ -37,7 +40,7 @@ public class CodeSwarmConfig
   public static final String HEIGHT_KEY = "Height";
   /** The maximum number of background threads */
   public static final String MAX_THREADS_KEY = "MaxThreads";
-  /** The input file */
+  /** The input file(s): a path, a comma-separated list of paths or a directory */
   public static final String INPUT_FILE_KEY = "InputFile";
   /** The amount of time between frames */
   public static final String MSEC_PER_FRAME_KEY = "MillisecondsPerFrame";
@@ -120,6 +123,46 @@ public class CodeSwarmConfig
   /** Controls where the config files are for the Physical Engine */
   public static final String PHYSICS_ENGINE_CONF_DIR = "PhysicsEngineConfigDir";
   public static final String IS_INPUT_SORTED_KEY = "IsInputSorted";
+  /** Format of the input file: "xml" (default), or the log of "svn" -v, "cvs" or "hg" */
+  public static final String INPUT_FORMAT_KEY = "InputFormat";
+  /** Xml parser used to read the input file: "sax" (default) or "stax" */
+  public static final String INPUT_PARSER_KEY = "InputParser";
+  /** Number of threads parsing an xml input file. Default 1, 0 uses every processor */
+  public static final String PARSER_THREADS_KEY = "ParserThreads";
+  /** Number of events sorted in memory at once when the input is not sorted */
+  public static final String SORT_RUN_SIZE_KEY = "SortRunSize";
+  /** Directory for temporary sort files. Optional, defaults to the system temp directory */
+  public static final String SORT_TEMP_DIR_KEY = "SortTempDir";
+  /** Number of events held back to put nearly sorted input in order (when IsInputSorted is false) */
+  public static final String REORDER_WINDOW_EVENTS_KEY = "ReorderWindowEvents";
+  /** Time in milliseconds events may lag behind to put nearly sorted input in order (when IsInputSorted is false) */
+  public static final String REORDER_WINDOW_MILLIS_KEY = "ReorderWindowMillis";
+  /** Boolean value, follows the (xml) input file as it grows and never stops */
+  public static final String FOLLOW_INPUT_KEY = "FollowInput";
+  /** Boolean value, merges repeated touches of a file by one author within a frame (default false) */
+  public static final String COALESCE_EVENTS_KEY = "CoalesceEvents";
+  /** Events before this date are skipped: milliseconds, yyyy-MM-dd or yyyy-MM-dd HH:mm:ss */
+  public static final String START_DATE_KEY = "StartDate";
+  /** Events after this date are skipped, same formats as StartDate */
+  public static final String END_DATE_KEY = "EndDate";
+  /** Numbered (IncludePath1, IncludePath2, ...) path prefixes or regexes; if any are given, paths must match one */
+  public static final String INCLUDE_PATH_KEY = "IncludePath";
+  /** Numbered (ExcludePath1, ExcludePath2, ...) path prefixes or regexes; matching paths are skipped */
+  public static final String EXCLUDE_PATH_KEY = "ExcludePath";
+  /** Comma-separated authors; if given, only their events are shown */
+  public static final String INCLUDE_AUTHORS_KEY = "IncludeAuthors";
+  /** Comma-separated authors whose events are skipped */
+  public static final String EXCLUDE_AUTHORS_KEY = "ExcludeAuthors";
+  /** Number of sessions fetching an svn log side by side in revision ranges. Default 1, 0 uses every processor */
+  public static final String SVN_FETCH_THREADS_KEY = "SvnFetchThreads";
+  /** Boolean value, weighs fetched changes by the lines added and removed instead of 1 */
+  public static final String LINE_WEIGHTS_KEY = "LineWeights";
+  /** Number of threads computing line weights of svn revisions. Default 0, one per processor */
+  public static final String WEIGHT_THREADS_KEY = "WeightThreads";
+  /** Directory of the store keeping fetched repository events. Default data/cache */
+  public static final String CACHE_DIRECTORY_KEY = "CacheDirectory";
+  /** Size in megabytes the store of fetched repository events is kept below. Default 1024 */
+  public static final String CACHE_SIZE_MB_KEY = "CacheSizeMB";
   /** Default regex and rgb values used to match anything not caught in the config file */
   public static String DEFAULT_COLOR_ASSIGN = "\"Misc\",\".*\",128,128,128,128,128,128";
 
@@ -253,6 +296,32 @@ public class CodeSwarmConfig
     return Long.parseLong( p.getProperty(key, String.valueOf(defValue)) );
   }
 
+  /**
+   *
+   * @param key
+   * @param defValue
+   * @return defValue if not found, the date (in milliseconds) if found.
+   *         Accepts milliseconds, yyyy-MM-dd or yyyy-MM-dd HH:mm:ss (local time).
+   */
+  public long getDateProperty( String key, long defValue )
+  {
+    String value = p.getProperty(key);
+    if ( value == null || value.trim().length() == 0 )
+      return defValue;
+    value = value.trim();
+    String[] patterns = { "yyyy-MM-dd HH:mm:ss", "yyyy-MM-dd" };
+    for ( String pattern : patterns ) {
+      SimpleDateFormat format = new SimpleDateFormat(pattern);
+      format.setLenient(false);
+      // the whole value has to match, parse(String) would ignore anything after the date
+      ParsePosition pos = new ParsePosition(0);
+      Date date = format.parse(value, pos);
+      if ( date != null && pos.getIndex() == value.length() )
+        return date.getTime();
+    }
+    return Long.parseLong(value);
+  }
+
   /**
    *
    * @param key
@@ -274,6 +343,17 @@ public class CodeSwarmConfig
     return Float.parseFloat( p.getProperty(key, String.valueOf(defValue)) );
   }
 
+  /**
+   *
+   * @param key
+   * @param index
+   * @return value of the numbered property key + index, null if not found
+   */
+  public String getIndexedProperty( String key, int index )
+  {
+    return p.getProperty( key + index );
+  }
+
   /**
    *
    * @param index
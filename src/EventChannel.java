@@ -0,0 +1,213 @@
+/**
+ * Copyright 2008 code_swarm project team
+ *
+ * This file is part of code_swarm.
+ *
+ * code_swarm is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * code_swarm is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with code_swarm.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+import java.util.Collection;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Bounded single-producer/single-consumer channel between the event loader
+ * and the animation thread.
+ *
+ * It is a lock-free ring buffer: the producer only writes the tail, the
+ * consumer only writes the head. A side that has to wait spins briefly,
+ * then parks until the other side wakes it up. The producer ends the stream
+ * with close(); take() then returns null once everything is drained.
+ *
+ * @remark only one thread may put and only one thread may take
+ */
+class EventChannel<T>
+{
+  private static final int SPIN_TRIES = 100;
+  private static final int YIELD_TRIES = 10;
+  private static final long PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+
+  private final Object[] buffer;
+  private final int mask;
+  private final AtomicLong head = new AtomicLong();
+  private final AtomicLong tail = new AtomicLong();
+  private volatile boolean closed = false;
+  private volatile Thread parkedConsumer;
+  private volatile Thread parkedProducer;
+
+  /**
+   * @param capacity number of items the channel holds, rounded up to a power of two
+   */
+  EventChannel(int capacity)
+  {
+    int size = 1;
+    while (size < capacity) {
+      size <<= 1;
+    }
+    buffer = new Object[size];
+    mask = size - 1;
+  }
+
+  /**
+   * Appends an item, waiting while the channel is full. Producer only.
+   */
+  public void put(T item) throws InterruptedException
+  {
+    long t = tail.get();
+    int tries = 0;
+    while (t - head.get() == buffer.length) {
+      tries = await(tries, true);
+    }
+    buffer[(int) t & mask] = item;
+    tail.lazySet(t + 1);
+    Thread consumer = parkedConsumer;
+    if (consumer != null) {
+      LockSupport.unpark(consumer);
+    }
+  }
+
+  /**
+   * Marks the end of the stream. Producer only; no put() may follow.
+   */
+  public void close()
+  {
+    closed = true;
+    Thread consumer = parkedConsumer;
+    if (consumer != null) {
+      LockSupport.unpark(consumer);
+    }
+  }
+
+  /**
+   * Removes the next item, waiting while the channel is empty. Consumer only.
+   * @return the next item, or null if the channel is closed and drained
+   */
+  public T take() throws InterruptedException
+  {
+    int tries = 0;
+    T item;
+    while ((item = poll()) == null) {
+      if (closed) {
+        // the producer wrote its last items before closing
+        return poll();
+      }
+      tries = await(tries, false);
+    }
+    return item;
+  }
+
+  /**
+   * Removes the next item without waiting. Consumer only.
+   * @return the next item or null if the channel is empty
+   */
+  public T poll()
+  {
+    long h = head.get();
+    if (h == tail.get()) {
+      return null;
+    }
+    T item = remove(h);
+    head.lazySet(h + 1);
+    wakeProducer();
+    return item;
+  }
+
+  /**
+   * Moves up to max items into c without waiting, releasing their slots to
+   * the producer at once. Consumer only.
+   * @return the number of items moved
+   */
+  public int drainTo(Collection<? super T> c, int max)
+  {
+    long h = head.get();
+    int n = (int) Math.min(max, tail.get() - h);
+    for (int i = 0; i < n; i++) {
+      c.add(remove(h + i));
+    }
+    if (n > 0) {
+      head.lazySet(h + n);
+      wakeProducer();
+    }
+    return n;
+  }
+
+  /**
+   * @return number of items waiting in the channel
+   */
+  public int size()
+  {
+    return (int) (tail.get() - head.get());
+  }
+
+  public boolean isEmpty()
+  {
+    return head.get() == tail.get();
+  }
+
+  /**
+   * @return true once the producer closed the channel and every item was taken
+   */
+  public boolean isFinished()
+  {
+    return closed && isEmpty();
+  }
+
+  @SuppressWarnings("unchecked")
+  private T remove(long index)
+  {
+    int slot = (int) index & mask;
+    T item = (T) buffer[slot];
+    buffer[slot] = null;
+    return item;
+  }
+
+  private void wakeProducer()
+  {
+    Thread producer = parkedProducer;
+    if (producer != null) {
+      LockSupport.unpark(producer);
+    }
+  }
+
+  /**
+   * Spin, then yield, then park. Parking is bounded, so a wake-up that races
+   * with registering as parked only costs one PARK_NANOS.
+   * @return the updated number of tries
+   */
+  private int await(int tries, boolean producer) throws InterruptedException
+  {
+    if (Thread.interrupted()) {
+      throw new InterruptedException();
+    }
+    if (tries < SPIN_TRIES) {
+      return tries + 1;
+    }
+    if (tries < SPIN_TRIES + YIELD_TRIES) {
+      Thread.yield();
+      return tries + 1;
+    }
+    Thread self = Thread.currentThread();
+    if (producer) {
+      parkedProducer = self;
+      LockSupport.parkNanos(this, PARK_NANOS);
+      parkedProducer = null;
+    } else {
+      parkedConsumer = self;
+      LockSupport.parkNanos(this, PARK_NANOS);
+      parkedConsumer = null;
+    }
+    return tries;
+  }
+}
@@ -16,7 +16,12 @@ along with code_swarm.  If not, see <http://www.gnu.org/licenses/>.
 
 import java.util.logging.Level;
 import java.util.logging.Logger;
+import org.codeswarm.repository.git.GitHistory;
 import org.codeswarm.repository.svn.SVNHistory;
+import org.codeswarm.repositoryevents.EventHandler;
+import org.codeswarm.repositoryevents.EventSource;
+import org.codeswarm.repositoryevents.EventStore;
+import org.codeswarm.repositoryevents.WeightCache;
 import java.awt.Toolkit;
 import java.io.File;
 import java.io.FileInputStream;
@@ -147,8 +152,8 @@ public class MainView extends javax.swing.JFrame {
     /**
      * gets called when the user presses the "Go"-Button.<br />
      * It manages fetching the repository entries and serving it to 
-     * {@link code_swarm}. It starts code_swarm after fetching the repository 
-     * entries.
+     * {@link code_swarm}. It starts code_swarm on the repository entries 
+     * while they are fetched.
      * @param evt The ActionEvent from Swing
      */
 private void goButtonActionPerformed(java.awt.event.ActionEvent evt) {//GEN-FIRST:event_goButtonActionPerformed
@@ -157,17 +162,42 @@ private void goButtonActionPerformed(java.awt.event.ActionEvent evt) {//GEN-FIRS
             goButton.setEnabled(false);
             clearCache.setEnabled(false);
             Preferences p = Preferences.userNodeForPackage(MainView.class);
-            String username = userName.getText();
-            String passwd = String.valueOf(password.getPassword());
-            String url = repositoryURL.getText();
+            final String username = userName.getText();
+            final String passwd = String.valueOf(password.getPassword());
+            final String url = repositoryURL.getText();
             p.put("username", username);
             p.put("repositoryURL", url);
-            SVNHistory hist = new SVNHistory("realtime_sample");
-            hist.run(url, username, passwd);
             try {
                 CodeSwarmConfig cfg = new CodeSwarmConfig(args[0]);
-                cfg.setInputFile(hist.getFilePath());
-                code_swarm.start(cfg);
+                final EventStore store = openEventStore(cfg);
+                final int fetchThreads = cfg.getIntProperty(CodeSwarmConfig.SVN_FETCH_THREADS_KEY, 1);
+                final boolean lineWeights = cfg.getBooleanProperty(CodeSwarmConfig.LINE_WEIGHTS_KEY, false);
+                final int weightThreads = cfg.getIntProperty(CodeSwarmConfig.WEIGHT_THREADS_KEY, 0);
+                final WeightCache weightCache = lineWeights ? openWeightCache(cfg) : null;
+                // the events are shown while they are fetched, the store is updated on the side
+                code_swarm.start(cfg, new EventSource() {
+                    public void emit(EventHandler handler) {
+                        try {
+                            if (GitHistory.isGitRepository(url)) {
+                                GitHistory hist = new GitHistory(store);
+                                // git counts the lines itself while it writes the log
+                                hist.setNumstat(lineWeights);
+                                hist.setEventHandler(handler);
+                                hist.run(url, username, passwd);
+                            } else {
+                                SVNHistory hist = new SVNHistory(store);
+                                hist.setFetchThreads(fetchThreads);
+                                if (lineWeights)
+                                    hist.setLineWeights(weightCache, weightThreads);
+                                hist.setEventHandler(handler);
+                                hist.run(url, username, passwd);
+                            }
+                        } finally {
+                            if (weightCache != null)
+                                weightCache.close();
+                        }
+                    }
+                });
                 dispose();
             } catch (IOException e) {
                 System.err.println("Failed due to exception: " + e.getMessage());
@@ -185,9 +215,39 @@ private void goButtonActionPerformed(java.awt.event.ActionEvent evt) {//GEN-FIRS
  * @param evt the Swing ActionEvent.
  */
 private void clearCacheActionPerformed(java.awt.event.ActionEvent evt) {//GEN-FIRST:event_clearCacheActionPerformed
-    SVNHistory.clearCache();
+    try {
+        CodeSwarmConfig cfg = new CodeSwarmConfig(args[0]);
+        openEventStore(cfg).clear();
+        openWeightCache(cfg).clear();
+    } catch (IOException e) {
+        System.err.println("Failed due to exception: " + e.getMessage());
+    }
 }//GEN-LAST:event_clearCacheActionPerformed
 
+/**
+ * opens the store holding the fetched repository events.
+ * @param cfg the config naming the directory and size of the store
+ * @return the store
+ * @throws java.io.IOException when the directory cannot be created
+ */
+private static EventStore openEventStore(CodeSwarmConfig cfg) throws IOException {
+    File directory = new File(cfg.getStringProperty(CodeSwarmConfig.CACHE_DIRECTORY_KEY, "data/cache"));
+    long maxBytes = cfg.getLongProperty(CodeSwarmConfig.CACHE_SIZE_MB_KEY, 1024) << 20;
+    return new EventStore(directory, maxBytes);
+}
+
+/**
+ * opens the cache holding the line weights of fetched revisions, which is
+ * kept next to the event store.
+ * @param cfg the config naming the directory of the store
+ * @return the cache
+ * @throws java.io.IOException when the directory cannot be created
+ */
+private static WeightCache openWeightCache(CodeSwarmConfig cfg) throws IOException {
+    File directory = new File(cfg.getStringProperty(CodeSwarmConfig.CACHE_DIRECTORY_KEY, "data/cache"));
+    return new WeightCache(new File(directory, "weights"));
+}
+
     /**
      * This is the main entry-point. It sets the native Look&Feel, creates and 
      * shows the MainView.
@@ -20,28 +20,46 @@
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
+import java.io.Flushable;
 import java.io.IOException;
+import java.io.InputStream;
 import java.lang.reflect.Constructor;
 import java.text.DateFormat;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Date;
 import java.util.Map;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.LinkedList;
+import java.util.List;
 import java.util.ListIterator;
 import java.util.Properties;
 import java.util.concurrent.ArrayBlockingQueue;
-import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.ExecutorService;
-import java.util.concurrent.PriorityBlockingQueue;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 import java.awt.Color;
 
 import javax.vecmath.Vector2f;
 import org.codeswarm.dependencies.sun.tools.javac.util.Pair;
+import org.codeswarm.repositoryevents.BinaryEventReader;
+import org.codeswarm.repositoryevents.BlockCompressedInputStream;
+import org.codeswarm.repositoryevents.EventFileIndex;
+import org.codeswarm.repositoryevents.EventFilter;
+import org.codeswarm.repositoryevents.EventHandler;
+import org.codeswarm.repositoryevents.EventMerger;
+import org.codeswarm.repositoryevents.EventSource;
+import org.codeswarm.repositoryevents.ExternalEventSorter;
+import org.codeswarm.repositoryevents.LogEventParser;
+import org.codeswarm.repositoryevents.ParallelEventParser;
+import org.codeswarm.repositoryevents.ReorderBuffer;
+import org.codeswarm.repositoryevents.StaxEventParser;
+import org.codeswarm.repositoryevents.StringDictionary;
+import org.codeswarm.repositoryevents.TailingEventReader;
 import org.xml.sax.Attributes;
+import org.xml.sax.InputSource;
 import org.xml.sax.SAXException;
 import org.xml.sax.XMLReader;
 import org.xml.sax.helpers.DefaultHandler;
@@ -67,11 +85,31 @@ public class code_swarm extends PApplet {
   int background;
 
   // Data storage
-  BlockingQueue<FileEvent> eventsQueue;
+  // One array of events per frame, see QueueEventHandler
+  EventChannel<FileEvent[]> eventsQueue;
+  // Batches drained from eventsQueue but not yet due
+  LinkedList<FileEvent[]> drainedBatches = new LinkedList<FileEvent[]>();
   boolean isInputSorted = false;
-  protected Map<String, FileNode> nodes;
+  // Follow the input file as it grows and play it back in real time
+  boolean followInput = false;
+  // Set once the follower has read the input file up to its end
+  volatile boolean inputCaughtUp = false;
+  boolean coalesceEvents = false;
+  int reorderWindowEvents = 0;
+  long reorderWindowMillis = 0;
+  // Events held back to order a live source when no reorder window is configured
+  static final int LIVE_REORDER_WINDOW = 1000;
+  long startDate = Long.MIN_VALUE;
+  long endDate = Long.MAX_VALUE;
+  // File and person names, interned by the loader. FileEvents refer to them by id.
+  protected StringDictionary fileNames;
+  protected StringDictionary personNames;
+  // Nodes indexed by file/person id, null until the first event for the id
+  protected FileNode[] nodes;
+  protected int nodeCount;
   protected Map<Pair<FileNode, PersonNode>, Edge> edges;
-  protected Map<String, PersonNode> people;
+  protected PersonNode[] people;
+  protected int peopleCount;
 
   // Liveness cache
   LinkedList<PersonNode> livingPeople = new LinkedList<PersonNode>();
@@ -81,12 +119,13 @@ public class code_swarm extends PApplet {
   LinkedList<ColorBins> history;
   LinkedList<Integer> peopleHistory;
 
-  boolean finishedLoading = false;
-
   // Temporary variables
+  FileEvent[] currentBatch;
+  // Index of the first event of currentBatch not shown yet
+  int currentBatchIndex;
   FileEvent currentEvent;
-  Date nextDate;
-  Date prevDate;
+  long nextDate;
+  long prevDate;
   FileNode prevNode;
   int maxTouches;
 
@@ -158,6 +197,8 @@ public class code_swarm extends PApplet {
   DateFormat formatter = DateFormat.getDateInstance();
 
   protected static CodeSwarmConfig cfg;
+  // Set when started on events that are still being fetched instead of an input file
+  protected static EventSource eventSource;
   private long lastDrawDuration = 0;
   private String loadingMessage = "Reading input file";
   protected static int width=0;
@@ -333,6 +374,12 @@ public class code_swarm extends PApplet {
     }
 
     isInputSorted = cfg.getBooleanProperty(CodeSwarmConfig.IS_INPUT_SORTED_KEY, false);
+    followInput = cfg.getBooleanProperty(CodeSwarmConfig.FOLLOW_INPUT_KEY, false);
+    coalesceEvents = cfg.getBooleanProperty(CodeSwarmConfig.COALESCE_EVENTS_KEY, false);
+    reorderWindowEvents = cfg.getIntProperty(CodeSwarmConfig.REORDER_WINDOW_EVENTS_KEY, 0);
+    reorderWindowMillis = cfg.getLongProperty(CodeSwarmConfig.REORDER_WINDOW_MILLIS_KEY, 0);
+    startDate = cfg.getDateProperty(CodeSwarmConfig.START_DATE_KEY, Long.MIN_VALUE);
+    endDate = cfg.getDateProperty(CodeSwarmConfig.END_DATE_KEY, Long.MAX_VALUE);
 
     /**
      * This section loads config files and calls the setup method for all physics engines.
@@ -393,26 +440,39 @@ public class code_swarm extends PApplet {
     frameRate(FRAME_RATE);
 
     // init data structures
-    nodes         = new HashMap<String,FileNode>();
+    fileNames     = new StringDictionary(1024);
+    personNames   = new StringDictionary();
+    nodes         = new FileNode[1024];
     edges         = new HashMap<Pair<FileNode, PersonNode>, Edge>();
-    people        = new HashMap<String,PersonNode>();
+    people        = new PersonNode[64];
     history       = new LinkedList<ColorBins>(); 
     peopleHistory = new LinkedList<Integer>(); 
     
-    if (isInputSorted) {
-      //If the input is sorted, we only need to store the next few events
-      eventsQueue = new ArrayBlockingQueue<FileEvent>(5000);
-    } else {
-      //Otherwise we need to store them all at once in a data structure that will sort them
-      eventsQueue = new PriorityBlockingQueue<FileEvent>();
-    }
+    //The loader hands events over in date order (unsorted input is sorted
+    //on disk first), so we only need to store the next few events
+    eventsQueue = new EventChannel<FileEvent[]>(512);
 
     // Init color map
     initColors();
 
-    loadRepEvents(cfg.getStringProperty(CodeSwarmConfig.INPUT_FILE_KEY)); // event formatted (this is the standard)
-    while (!finishedLoading && eventsQueue.isEmpty());
-    prevDate = eventsQueue.peek().date;
+    String inputFile = cfg.getStringProperty(CodeSwarmConfig.INPUT_FILE_KEY);
+    if (eventSource != null)
+      loadLiveEvents(eventSource);
+    else
+      loadRepEvents(inputFile); // event formatted (this is the standard)
+    if (eventSource == null && followInput) {
+      // replay what the file holds so far; if there is nothing yet, start at the present
+      currentBatch = nextFollowedBatch();
+      prevDate = currentBatch != null ? currentBatch[0].date : System.currentTimeMillis();
+    } else {
+      currentBatch = nextBatch(true);
+      if (currentBatch == null) {
+        System.out.println("No events to show: the input is empty or no events match the filters"
+                           + " (StartDate, EndDate, IncludePath, ExcludePath, IncludeAuthors, ExcludeAuthors)");
+        System.exit(1);
+      }
+      prevDate = currentBatch[0].date;
+    }
 
     SCREENSHOT_FILE = cfg.getStringProperty(CodeSwarmConfig.SNAPSHOT_LOCATION_KEY);
 
@@ -536,7 +596,7 @@ public class code_swarm extends PApplet {
     }
 
     // Stop animation when we run out of data AND all nodes are dead
-    if (eventsQueue.isEmpty()) {
+    if (currentBatch == null && drainedBatches.isEmpty() && eventsQueue.isFinished()) {
       coolDown = true;
       if ( !isThereLife() ) {
         // noLoop();
@@ -597,7 +657,7 @@ public class code_swarm extends PApplet {
    */
   public void drawDate() {
     fill(255);
-    String dateText = formatter.format(prevDate);
+    String dateText = formatter.format(new Date(prevDate));
     textFont(infoFont);
     textAlign(RIGHT, BASELINE);
     textSize(infoFont.size);
@@ -738,9 +798,9 @@ public class code_swarm extends PApplet {
     textFont(font);
     textAlign(LEFT, TOP);
     fill(255, 200);
-    text("Nodes: " + nodes.size(), 0, 0);
-    text("People: " + people.size(), 0, 10);
-    text("Queue: " + eventsQueue.size(), 0, 20);
+    text("Nodes: " + nodeCount, 0, 0);
+    text("People: " + peopleCount, 0, 10);
+    text("Queue: " + (eventsQueue.size() + drainedBatches.size()) + " frames", 0, 20);
     text("Last render time: " + lastDrawDuration, 0, 30);
   }
 
@@ -754,8 +814,9 @@ public class code_swarm extends PApplet {
     textAlign(RIGHT, TOP);
     fill(255, 200);
     text("Popular Nodes (touches):", width-120, 0);
-    for (FileNode fn : nodes.values()) {
-      if (fn.qualifies()) {
+    for (int k = 0; k < nodes.length; k++) {
+      FileNode fn = nodes[k];
+      if (fn != null && fn.qualifies()) {
         // Insertion Sort
         if (al.size() > 0) {
           int j = 0;
@@ -833,44 +894,52 @@ public class code_swarm extends PApplet {
     // Create a new people histogram line
     peopleHistory.add(new Integer(livingPeople.size()));
 
-    nextDate = new Date(prevDate.getTime() + UPDATE_DELTA);
-    currentEvent = eventsQueue.peek();
+    nextDate = prevDate + UPDATE_DELTA;
+    if (followInput) {
+      // once playback has caught up with the present, advance in real time
+      nextDate = Math.max(prevDate, Math.min(nextDate, System.currentTimeMillis()));
+    }
+    if (currentBatch == null)
+      currentBatch = nextBatch(!followInput);
 
-    while (currentEvent != null && currentEvent.date.before(nextDate)) {
-      if (finishedLoading) {
-        currentEvent = eventsQueue.poll();
-        if (currentEvent == null)
-          return;
-        }
-        else {
-          try {
-            currentEvent = eventsQueue.take();
-          } catch (InterruptedException e) {
-          // TODO Auto-generated catch block
-          System.out.println("Interrupted while fetching current event from eventsQueue");
-          e.printStackTrace();
-          continue;
-        }
-      }
+    // The loader groups events by frame, so a batch is usually due as a whole. In follow
+    // mode frames end at the present instead, so the rest of a batch may have to wait.
+    int batchEnd = currentBatchIndex;
+    if (currentBatch != null) {
+      while (batchEnd < currentBatch.length && currentBatch[batchEnd].date < nextDate)
+        batchEnd++;
+    }
+
+    for (int i = currentBatchIndex; i < batchEnd; i++) {
+      currentEvent = currentBatch[i];
 
-      FileNode n = findNode(currentEvent.path + currentEvent.filename);
+      FileNode n = findNode(currentEvent.fileId);
       if (n == null) {
         n = new FileNode(currentEvent);
-        nodes.put(currentEvent.path + currentEvent.filename, n);
+        if (currentEvent.fileId >= nodes.length) {
+          nodes = Arrays.copyOf(nodes, Math.max(nodes.length * 2, currentEvent.fileId + 1));
+        }
+        nodes[currentEvent.fileId] = n;
+        nodeCount++;
         livingNodes.addLast(n);
       } else {
         if (!n.isAlive())
             livingNodes.addLast(n);
-        n.freshen();
+        n.freshen(currentEvent.count);
       }
 
-      // add to histogram
-      cb.add(n.nodeHue);
+      // add to histogram, once per file and frame
+      if (currentEvent.firstOfFile)
+        cb.add(n.nodeHue);
 
-      PersonNode p = findPerson(currentEvent.author);
+      PersonNode p = findPerson(currentEvent.authorId);
       if (p == null) {
-        p = new PersonNode(currentEvent.author);
-        people.put(currentEvent.author, p);
+        p = new PersonNode(personNames.getString(currentEvent.authorId));
+        if (currentEvent.authorId >= people.length) {
+          people = Arrays.copyOf(people, Math.max(people.length * 2, currentEvent.authorId + 1));
+        }
+        people[currentEvent.authorId] = p;
+        peopleCount++;
         livingPeople.addLast(p);
       } else {
         if (!p.isAlive())
@@ -898,12 +967,12 @@ public class code_swarm extends PApplet {
 
       // prevDate = currentEvent.date;
       prevNode = n;
-      if (finishedLoading)
-        currentEvent = eventsQueue.peek();
-      else {
-        while (eventsQueue.isEmpty());
-        currentEvent = eventsQueue.peek();
-      }
+    }
+    if (currentBatch != null && batchEnd == currentBatch.length) {
+      currentBatch = null;
+      currentBatchIndex = 0;
+    } else {
+      currentBatchIndex = batchEnd;
     }
 
     if ( !coolDown )
@@ -953,6 +1022,47 @@ public class code_swarm extends PApplet {
     }
   }
 
+  /**
+   * Fetches the next frame's events.
+   * @param wait whether to wait for the loader if no events are ready
+   * @return the events of the next frame that has any, or null at the end of the input
+   *         (or if none are ready and wait is false)
+   */
+  FileEvent[] nextBatch(boolean wait) {
+    if (drainedBatches.isEmpty() && eventsQueue.drainTo(drainedBatches, 64) == 0) {
+      if (!wait)
+        return null;
+      try {
+        return eventsQueue.take();
+      } catch (InterruptedException e) {
+        System.out.println("Interrupted while fetching events from eventsQueue");
+        e.printStackTrace();
+        return null;
+      }
+    }
+    return drainedBatches.removeFirst();
+  }
+
+  /**
+   * Waits for the first events of a followed file, but only until the file
+   * has been read up to its end once.
+   * @return the events of the first frame, or null if there are none yet
+   */
+  FileEvent[] nextFollowedBatch() {
+    while (true) {
+      // everything read before the catch-up is in the queue once the flag is set
+      boolean caughtUp = inputCaughtUp;
+      FileEvent[] batch = nextBatch(false);
+      if (batch != null || caughtUp)
+        return batch;
+      try {
+        Thread.sleep(10);
+      } catch (InterruptedException e) {
+        return null;
+      }
+    }
+  }
+
   /**
    * Checks the node list for signs of life.
    * @return Does life exist?
@@ -962,12 +1072,12 @@ public class code_swarm extends PApplet {
   }
 
   /**
-   * Searches the nodes array for a given name
-   * @param name
-   * @return FileNode with matching name or null if not found.
+   * Searches the nodes array for a given file
+   * @param fileId id of the file name in fileNames
+   * @return FileNode for the file or null if not found.
    */
-  public FileNode findNode(String name) {
-    return nodes.get(name);
+  public FileNode findNode(int fileId) {
+    return fileId < nodes.length ? nodes[fileId] : null;
   }
 
   /**
@@ -981,28 +1091,280 @@ public class code_swarm extends PApplet {
   }
 
   /**
-   * Searches the people array for a given name.
-   * @param name
-   * @return PersonNode for given name or null if not found.
+   * Searches the people array for a given person.
+   * @param authorId id of the person's name in personNames
+   * @return PersonNode for given person or null if not found.
    */
-  public PersonNode findPerson(String name) {
-    return people.get(name);
+  public PersonNode findPerson(int authorId) {
+    return authorId < people.length ? people[authorId] : null;
   }
 
   /**
    *  Load the standard event-formatted file.
-   *  @param filename
+   *  @param filename an input file, a comma-separated list of them, or a
+   *  directory holding them
    */
   public void loadRepEvents(String filename) {
-    final String fullFilename = filename;
+    final List<String> inputFiles = listInputFiles(filename);
+    final boolean reorder = !isInputSorted && (reorderWindowEvents > 0 || reorderWindowMillis > 0);
+    final QueueEventHandler queueHandler = new QueueEventHandler(eventsQueue, (isInputSorted || reorder) && !followInput);
+    final ReorderBuffer reorderBuffer = reorder ? new ReorderBuffer(queueHandler, reorderWindowEvents, reorderWindowMillis) : null;
+    final EventFilter filter = new EventFilter(reorder ? reorderBuffer : queueHandler);
+    configureFilter(filter);
+    final ExternalEventSorter sorter;
+    final Runnable eventLoader;
+
+    if (followInput) {
+      if (inputFiles.size() != 1) {
+        System.out.println("FollowInput needs exactly one input file, got " + inputFiles);
+        System.exit(1);
+      }
+      final String fullFilename = inputFiles.get(0);
+      // The file never ends, so it can be neither sorted nor handed to the executor.
+      // Late events are simply shown as soon as they arrive. Whenever the reader
+      // has caught up, its flush makes a reorder buffer pass on what it holds.
+      Thread follower = new Thread(new Runnable() {
+        public void run() {
+          try {
+            new TailingEventReader(new File(fullFilename), 1000).follow(filter);
+          } catch (IOException e) {
+            System.out.println("Error following input file:");
+            e.printStackTrace();
+            System.exit(1);
+          } catch (RuntimeException e) {
+            // don't leave the display waiting for a follower that is gone
+            System.out.println("Error following input file:");
+            e.printStackTrace();
+            System.exit(1);
+          }
+        }
+      }, "code_swarm input follower");
+      follower.setDaemon(true);
+      follower.start();
+      return;
+    }
+
+    if (isInputSorted || reorder) {
+      // nearly sorted input is put in order by the reorder buffer as it streams through
+      sorter = null;
+      if (inputFiles.size() == 1)
+        eventLoader = createEventLoader(inputFiles.get(0), filter);
+      else
+        eventLoader = createMergingLoader(inputFiles, filter);
+    } else {
+      //we have to see all of the data before we can emit the first event if it isn't sorted,
+      //so sort it in runs on disk and merge them into the queue
+      String tempDir = cfg.getStringProperty(CodeSwarmConfig.SORT_TEMP_DIR_KEY);
+      sorter = new ExternalEventSorter(cfg.getIntProperty(CodeSwarmConfig.SORT_RUN_SIZE_KEY, 1000000),
+                                       tempDir == null ? null : new File(tempDir));
+      EventFilter sortFilter = new EventFilter(sorter);
+      configureFilter(sortFilter);
+      final List<Runnable> loaders = new ArrayList<Runnable>();
+      for (String inputFile : inputFiles)
+        loaders.add(createEventLoader(inputFile, sortFilter));
+      // the sorter sees everything anyway, so the files are simply read one after the other
+      eventLoader = new Runnable() {
+        public void run() {
+          for (Runnable loader : loaders)
+            loader.run();
+        }
+      };
+    }
+
+    backgroundExecutor.execute(new Runnable() {
+      public void run() {
+        eventLoader.run();
+        if (reorderBuffer != null)
+          finishReordering(reorderBuffer);
+        if (sorter != null) {
+          try {
+            sorter.merge(queueHandler);
+          } catch (IOException e) {
+            System.out.println("Error sorting events:");
+            e.printStackTrace();
+            System.exit(1);
+          }
+        }
+        queueHandler.flush();
+        eventsQueue.close();
+      }
+    });
+  }
+
+  /**
+   * Streams events straight into the events queue while they are being
+   * produced, e.g. fetched from a repository. The first frames are shown
+   * as soon as the first events arrive.
+   * @param source the events, roughly in date order
+   */
+  public void loadLiveEvents(final EventSource source) {
+    final QueueEventHandler queueHandler = new QueueEventHandler(eventsQueue, false);
+    // a repository log can't be sorted up front without waiting for all of it,
+    // so it is always put in order by a reorder buffer
+    int windowEvents = reorderWindowEvents > 0 || reorderWindowMillis > 0 ? reorderWindowEvents : LIVE_REORDER_WINDOW;
+    final ReorderBuffer reorderBuffer = new ReorderBuffer(queueHandler, windowEvents, reorderWindowMillis);
+    final EventFilter filter = new EventFilter(reorderBuffer);
+    configureFilter(filter);
+    backgroundExecutor.execute(new Runnable() {
+      public void run() {
+        source.emit(filter);
+        finishReordering(reorderBuffer);
+        queueHandler.flush();
+        eventsQueue.close();
+      }
+    });
+  }
+
+  /**
+   * Hands the events still held by a reorder buffer on and reports the ones
+   * that were too late to be put in order.
+   * @param reorderBuffer the buffer
+   */
+  private void finishReordering(ReorderBuffer reorderBuffer) {
+    reorderBuffer.finish();
+    if (reorderBuffer.getLateCount() > 0)
+      System.out.println(reorderBuffer.getLateCount() + " events arrived after the reorder window"
+                         + " (up to " + reorderBuffer.getMaxLateness() + " ms late) and were shown late");
+  }
+
+  /**
+   * Sets up a filter from the date range, path patterns and author lists in
+   * the config.
+   * @param filter the filter to set up
+   */
+  private void configureFilter(EventFilter filter) {
+    filter.setStartDate(startDate);
+    filter.setEndDate(endDate);
+    String pattern;
+    for (int i = 1; (pattern = cfg.getIndexedProperty(CodeSwarmConfig.INCLUDE_PATH_KEY, i)) != null; i++)
+      filter.addIncludePath(pattern);
+    for (int i = 1; (pattern = cfg.getIndexedProperty(CodeSwarmConfig.EXCLUDE_PATH_KEY, i)) != null; i++)
+      filter.addExcludePath(pattern);
+    for (String author : cfg.getStringProperty(CodeSwarmConfig.INCLUDE_AUTHORS_KEY, "").split(",")) {
+      if (author.trim().length() > 0)
+        filter.addIncludeAuthor(author.trim());
+    }
+    for (String author : cfg.getStringProperty(CodeSwarmConfig.EXCLUDE_AUTHORS_KEY, "").split(",")) {
+      if (author.trim().length() > 0)
+        filter.addExcludeAuthor(author.trim());
+    }
+  }
+
+  /**
+   * @param spec an input file, a comma-separated list of them, or a directory
+   * @return the input files; a directory contributes its xml and binary
+   * event files in name order
+   */
+  private List<String> listInputFiles(String spec) {
+    List<String> files = new ArrayList<String>();
+    for (String name : spec.split(",")) {
+      name = name.trim();
+      if (name.length() == 0)
+        continue;
+      File f = new File(name);
+      if (f.isDirectory()) {
+        File[] children = f.listFiles();
+        Arrays.sort(children);
+        for (File child : children) {
+          if (child.isFile() && (child.getName().endsWith(".xml") || BinaryEventReader.isBinaryEventFile(child)
+                                 || BlockCompressedInputStream.isBlockCompressedFile(child)))
+            files.add(child.getPath());
+        }
+      } else {
+        files.add(name);
+      }
+    }
+    if (files.isEmpty()) {
+      System.out.println("No input files found in " + spec);
+      System.exit(1);
+    }
+    return files;
+  }
 
-    Runnable eventLoader = new XMLQueueLoader(fullFilename, eventsQueue, isInputSorted);
+  /**
+   * Loads several date-sorted files at once, each on its own thread into a
+   * bounded buffer, and merges them by date.
+   * @param filenames the input files
+   * @param handler receives the merged events
+   * @return the loader
+   */
+  private Runnable createMergingLoader(final List<String> filenames, final EventHandler handler) {
+    return new Runnable() {
+      public void run() {
+        final EventMerger merger = new EventMerger(filenames.size(), 64);
+        for (int i = 0; i < filenames.size(); i++) {
+          final int input = i;
+          final Runnable loader = createEventLoader(filenames.get(i), merger.getInput(i));
+          Thread t = new Thread(new Runnable() {
+            public void run() {
+              try {
+                loader.run();
+              } finally {
+                merger.finish(input);
+              }
+            }
+          }, "code_swarm loader " + filenames.get(i));
+          t.setDaemon(true);
+          t.start();
+        }
+        try {
+          merger.merge(handler);
+        } catch (InterruptedException e) {
+          System.out.println("Interrupted while merging input files");
+          System.exit(1);
+        }
+      }
+    };
+  }
 
-    if (isInputSorted)
-      backgroundExecutor.execute(eventLoader);
+  /**
+   * @param filename the input file
+   * @param handler receives the events in file order
+   * @return a loader matching the file format and the configured parser
+   */
+  private Runnable createEventLoader(String filename, EventHandler handler) {
+    int parserThreads = cfg.getIntProperty(CodeSwarmConfig.PARSER_THREADS_KEY, 1);
+    if (parserThreads <= 0)
+      parserThreads = Runtime.getRuntime().availableProcessors();
+    File file = new File(filename);
+    String format = cfg.getStringProperty(CodeSwarmConfig.INPUT_FORMAT_KEY, "xml");
+    if (BinaryEventReader.isBinaryEventFile(file))
+      return new BinaryQueueLoader(filename, handler);
+    else if (!format.equalsIgnoreCase("xml")) {
+      if (!LogEventParser.isLogFormat(format)) {
+        System.out.println("Unknown InputFormat " + format + ", expected xml, svn, cvs or hg");
+        System.exit(1);
+      }
+      return new LogQueueLoader(filename, handler, format);
+    }
+    // block-compressed xml is inflated in parallel instead and parsed by a single parser
+    else if (parserThreads > 1 && !BlockCompressedInputStream.isBlockCompressedFile(file))
+      return new ParallelQueueLoader(filename, handler, parserThreads);
+    else if (cfg.getStringProperty(CodeSwarmConfig.INPUT_PARSER_KEY, "sax").equalsIgnoreCase("stax"))
+      return new StaxQueueLoader(filename, handler);
     else
-      //we have to load all of the data before we can continue if it isn't sorted
-      eventLoader.run();
+      return new XMLQueueLoader(filename, handler);
+  }
+
+  /**
+   * Opens an xml event file. With a StartDate, the file's time index is used
+   * to skip straight to the day of the start date; the filter drops the
+   * remaining earlier events.
+   * @param filename the input file
+   * @return a stream holding a well-formed event document
+   */
+  private InputStream openEventFile(String filename) throws IOException {
+    File file = new File(filename);
+    return EventFileIndex.openAt(file, startOffset(file));
+  }
+
+  /**
+   * @return the byte offset to start parsing an xml event file at
+   */
+  private long startOffset(File file) throws IOException {
+    if (startDate == Long.MIN_VALUE)
+      return 0;
+    return EventFileIndex.load(file).getOffset(startDate);
   }
 
   /*
@@ -1133,15 +1495,110 @@ public class code_swarm extends PApplet {
     looping = !looping;
   }
 
+  /**
+   * Final stage of the loading pipeline: interns the names, turns events into
+   * FileEvents and groups them by frame, so update() takes one array from
+   * the events queue per frame instead of one event at a time.
+   * Frames are UPDATE_DELTA long and start at the first event's date.
+   */
+  private class QueueEventHandler implements EventHandler, Flushable {
+    private EventChannel<FileEvent[]> queue;
+    boolean checkSorted;
+    private ArrayList<FileEvent> batch = new ArrayList<FileEvent>();
+    // the frame's events by (file, author) and the files seen in the frame, when coalescing
+    private HashMap<Long,FileEvent> frameEvents = new HashMap<Long,FileEvent>();
+    private HashSet<Integer> frameFiles = new HashSet<Integer>();
+    private long frameStart;
+    private long frameEnd = Long.MIN_VALUE;
+
+    private QueueEventHandler(EventChannel<FileEvent[]> queue, boolean checkSorted) {
+      this.queue = queue;
+      this.checkSorted = checkSorted;
+    }
+
+    public void handleEvent(long eventDate, String eventAuthor, String eventFilename, int eventWeight) {
+      //It's difficult for the user to tell that they're missing events,
+      //so we should crash in this case
+      if (checkSorted) {
+        if (eventDate < maximumDateSeenSoFar) {
+          System.out.println("Input not sorted, you must set IsInputSorted to false in your config file");
+          System.exit(1);
+        }
+        else
+          maximumDateSeenSoFar = eventDate;
+      }
+
+      if (eventDate >= frameEnd) {
+        putBatch();
+        if (frameEnd == Long.MIN_VALUE)
+          frameStart = eventDate;
+        else
+          frameStart += ((eventDate - frameStart) / UPDATE_DELTA) * UPDATE_DELTA;
+        frameEnd = frameStart + UPDATE_DELTA;
+      }
+      int authorId = personNames.getId(eventAuthor);
+      int fileId = fileNames.getId(eventFilename);
+      if (!coalesceEvents) {
+        batch.add(new FileEvent(eventDate, authorId, fileId, eventWeight));
+        return;
+      }
+      // Bulk commits touch the same files over and over within a frame; merge those
+      // touches so update() does its work once per file and author
+      Long key = Long.valueOf(((long) fileId << 32) | (authorId & 0xffffffffL));
+      FileEvent fe = frameEvents.get(key);
+      if (fe != null) {
+        fe.weight += eventWeight;
+        fe.count++;
+        return;
+      }
+      fe = new FileEvent(eventDate, authorId, fileId, eventWeight);
+      fe.firstOfFile = frameFiles.add(Integer.valueOf(fileId));
+      frameEvents.put(key, fe);
+      batch.add(fe);
+    }
+
+    /**
+     * Hands the current frame's events to the queue. Called when the input
+     * ends or, when following a file, whenever the file was read up to its end.
+     */
+    public void flush() {
+      putBatch();
+      inputCaughtUp = true;
+    }
+
+    /**
+     * Hands the current frame's events to the queue.
+     */
+    private void putBatch() {
+      if (batch.isEmpty())
+        return;
+      try {
+        queue.put(batch.toArray(new FileEvent[batch.size()]));
+      } catch (InterruptedException e) {
+        // TODO Auto-generated catch block
+        System.out.println("Interrupted while trying to put into eventsQueue");
+        e.printStackTrace();
+        System.exit(1);
+      }
+      batch.clear();
+      if (frameEvents.size() > 4096) {
+        // don't keep clearing the big tables a bulk commit left behind
+        frameEvents = new HashMap<Long,FileEvent>();
+        frameFiles = new HashSet<Integer>();
+      } else {
+        frameEvents.clear();
+        frameFiles.clear();
+      }
+    }
+  }
+
   private class XMLQueueLoader implements Runnable {
     private final String fullFilename;
-    private BlockingQueue<FileEvent> queue;
-    boolean isXMLSorted;
+    private EventHandler handler;
 
-    private XMLQueueLoader(String fullFilename, BlockingQueue<FileEvent> queue, boolean isXMLSorted) {
+    private XMLQueueLoader(String fullFilename, EventHandler handler) {
       this.fullFilename = fullFilename;
-      this.queue = queue;
-      this.isXMLSorted = isXMLSorted;
+      this.handler = handler;
     }
 
     public void run(){
@@ -1166,38 +1623,21 @@ public class code_swarm extends PApplet {
               eventWeight = Integer.parseInt(eventWeightStr);
             }
 
-            //It's difficult for the user to tell that they're missing events,
-            //so we should crash in this case
-            if (isXMLSorted){
-              if (eventDate < maximumDateSeenSoFar){
-                System.out.println("Input not sorted, you must set IsInputSorted to false in your config file");
-                System.exit(1);
-              }
-              else
-                maximumDateSeenSoFar = eventDate;
-            }
-
             String eventAuthor = atts.getValue("author");
             // int eventLinesAdded = atts.getValue( "linesadded" );
             // int eventLinesRemoved = atts.getValue( "linesremoved" );
 
-            FileEvent evt = new FileEvent(eventDate, eventAuthor, "", eventFilename, eventWeight);
-            try {
-              queue.put(evt);
-            } catch (InterruptedException e) {
-              // TODO Auto-generated catch block
-              System.out.println("Interrupted while trying to put into eventsQueue");
-              e.printStackTrace();
-              System.exit(1);
-            }
+            handler.handleEvent(eventDate, eventAuthor, eventFilename, eventWeight);
           }
         }
-        public void endDocument(){
-          finishedLoading = true;
-        }
       });
       try {
-        reader.parse(fullFilename);
+        InputStream in = openEventFile(fullFilename);
+        try {
+          reader.parse(new InputSource(in));
+        } finally {
+          in.close();
+        }
       } catch (Exception e) {
         // TODO Auto-generated catch block
         System.out.println("Error parsing xml:");
@@ -1207,6 +1647,135 @@ public class code_swarm extends PApplet {
     }
   }
 
+  /**
+   * Loads events with a StAX pull parser, sharing author and filename strings
+   * between events. The parser interns them into personNames and fileNames,
+   * so the queue handler finds them there instead of interning them again.
+   */
+  private class StaxQueueLoader implements Runnable {
+    private final String fullFilename;
+    private EventHandler handler;
+
+    private StaxQueueLoader(String fullFilename, EventHandler handler) {
+      this.fullFilename = fullFilename;
+      this.handler = handler;
+    }
+
+    public void run() {
+      try {
+        InputStream in = openEventFile(fullFilename);
+        try {
+          new StaxEventParser(personNames, fileNames).parse(in, handler);
+        } finally {
+          in.close();
+        }
+      } catch (Exception e) {
+        System.out.println("Error parsing xml:");
+        e.printStackTrace();
+        System.exit(1);
+      }
+    }
+  }
+
+  /**
+   * Loads events by parsing chunks of the xml file on several threads.
+   * Events still arrive in file order.
+   */
+  private class ParallelQueueLoader implements Runnable {
+    private final String fullFilename;
+    private EventHandler handler;
+    private final int threads;
+
+    private ParallelQueueLoader(String fullFilename, EventHandler handler, int threads) {
+      this.fullFilename = fullFilename;
+      this.handler = handler;
+      this.threads = threads;
+    }
+
+    public void run() {
+      try {
+        File file = new File(fullFilename);
+        new ParallelEventParser(threads, ParallelEventParser.DEFAULT_CHUNK_SIZE)
+          .parse(file, startOffset(file), handler);
+      } catch (Exception e) {
+        System.out.println("Error parsing xml:");
+        e.printStackTrace();
+        System.exit(1);
+      }
+    }
+  }
+
+  /**
+   * Loads events straight from a version control log
+   * (see {@link org.codeswarm.repositoryevents.LogEventParser}).
+   */
+  private class LogQueueLoader implements Runnable {
+    private final String fullFilename;
+    private EventHandler handler;
+    private final LogEventParser parser;
+
+    private LogQueueLoader(String fullFilename, EventHandler handler, String format) {
+      this.fullFilename = fullFilename;
+      this.handler = handler;
+      this.parser = LogEventParser.create(format);
+      // the names go straight into the dictionaries the queue handler uses
+      parser.setDictionaries(personNames, fileNames);
+    }
+
+    public void run() {
+      try {
+        parser.parse(fullFilename, handler);
+      } catch (IOException e) {
+        System.out.println("Error reading log:");
+        e.printStackTrace();
+        System.exit(1);
+      }
+    }
+  }
+
+  /**
+   * Loads events from a memory-mapped binary event file
+   * (see {@link org.codeswarm.repositoryevents.BinaryEventConverter}).
+   */
+  private class BinaryQueueLoader implements Runnable {
+    private final String fullFilename;
+    private EventHandler handler;
+
+    private BinaryQueueLoader(String fullFilename, EventHandler handler) {
+      this.fullFilename = fullFilename;
+      this.handler = handler;
+    }
+
+    public void run() {
+      BinaryEventReader reader = null;
+      try {
+        reader = new BinaryEventReader(new File(fullFilename));
+      } catch (IOException e) {
+        System.out.println("Error reading binary event file:");
+        e.printStackTrace();
+        System.exit(1);
+      }
+      long count = reader.getEventCount();
+      long first = 0;
+      if (isInputSorted && startDate != Long.MIN_VALUE) {
+        first = reader.findFirst(startDate);
+      }
+      if (isInputSorted && endDate != Long.MAX_VALUE) {
+        count = reader.findFirst(endDate + 1);
+      }
+      for (long i = first; i < count; i++) {
+        // strings come from the file's string tables, so they are shared between events
+        handler.handleEvent(reader.getDate(i), reader.getAuthor(reader.getAuthorId(i)),
+                            reader.getPath(reader.getPathId(i)), reader.getWeight(i));
+      }
+      try {
+        reader.close();
+      } catch (IOException e) {
+        e.printStackTrace();
+      }
+    }
+  }
+
   class Utils {
     Utils () {
     }
@@ -1260,32 +1829,29 @@ public class code_swarm extends PApplet {
 
 
   /**
-   * Describe an event on a file
+   * Describe an event on a file.
+   * Author and file are ids into personNames and fileNames, so the
+   * simulation never hashes or compares strings.
    */
-  class FileEvent implements Comparable<Object> {
-    Date date;
-    String author;
-    String filename;
-    String path;
+  static class FileEvent implements Comparable<Object> {
+    long date;
+    int authorId;
+    int fileId;
     //int linesadded;
     //int linesremoved;
     int weight;
-
-    /**
-     * short constructor with base data
-     */
-    FileEvent(long datenum, String author, String path, String filename) {
-      this(datenum, author, path, filename, 1);
-    }
+    /** number of events of this file and author in the frame merged into this one */
+    int count = 1;
+    /** true for the first event of its file in the frame */
+    boolean firstOfFile = true;
 
     /**
      * constructor with weight
      */
-    FileEvent(long datenum, String author, String path, String filename, int weight) {
-      this.date = new Date(datenum);
-      this.author = author;
-      this.path = path;
-      this.filename = filename;
+    FileEvent(long date, int authorId, int fileId, int weight) {
+      this.date = date;
+      this.authorId = authorId;
+      this.fileId = fileId;
       this.weight = weight;
     }
 
@@ -1295,7 +1861,8 @@ public class code_swarm extends PApplet {
      * @return -1 if <, 0 if =, 1 if >
      */
     public int compareTo(Object o) {
-      return date.compareTo(((FileEvent) o).date);
+      long other = ((FileEvent) o).date;
+      return date < other ? -1 : (date == other ? 0 : 1);
     }
   }
 
@@ -1436,7 +2003,7 @@ public class code_swarm extends PApplet {
      */
     FileNode(FileEvent fe) {
       super(FILE_LIFE_INIT, FILE_LIFE_DECREMENT); // 255, -2
-      name = fe.path + fe.filename;
+      name = fileNames.getString(fe.fileId);
       touches = fe.weight;
       life = FILE_LIFE_INIT;
       colorMode(RGB);
@@ -1480,8 +2047,16 @@ public class code_swarm extends PApplet {
      * 6) reseting life as if new.
      */
     public void freshen() {
+      freshen(1);
+    }
+
+    /**
+     * reset life and add a number of touches
+     */
+    public void freshen(int touchCount) {
       life = FILE_LIFE_INIT;
-      if (++touches > maxTouches) {
+      touches += touchCount;
+      if (touches > maxTouches) {
         maxTouches = touches;
       }
     }
@@ -1645,4 +2220,15 @@ public class code_swarm extends PApplet {
     cfg = config;
     PApplet.main(new String[]{"code_swarm"});
   }
+  /**
+   * the entry-point for showing a repository while its log is fetched. It
+   * gets called from {@link MainView}.
+   * @param config the config
+   * @param source the events being fetched; the InputFile-property is
+   *        not used
+   */
+  public static void start(CodeSwarmConfig config, EventSource source){
+    eventSource = source;
+    start(config);
+  }
 }
@@ -0,0 +1,372 @@
+/* This file is part of code_swarm.
+
+code_swarm is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+code_swarm is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with code_swarm.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.codeswarm.repository.git;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.UnsupportedEncodingException;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.codeswarm.repository.RepositoryHistoryVisitor;
+
+/**
+ * Provides access to the history of git repositories by running
+ * <code>git log</code> on a local clone.<br />
+ * The output of git is parsed while it is written and handed to
+ * {@link #handleLogEntry} one commit at a time, oldest first, so no
+ * intermediate file is written and the history is never held in memory as
+ * a whole.<br />
+ * Derived classes must implement the hooks to perform corresponding
+ * operations. Revisions are commit ids; the url is the path of the clone
+ * (or a file:// url). User name and password are not used.
+ * @see org.codeswarm.repository.RepositoryHistoryVisitor
+ */
+public abstract class AbstractGitHistoryVisitor implements RepositoryHistoryVisitor<GitLogEntry, IOException, String>{
+    /** Starts the header line of every commit in the log */
+    private static final char COMMIT_MARK = '\u0001';
+    private static final String[] NO_PARENTS = new String[0];
+
+    private String gitCommand = "git";
+    private boolean numstat = false;
+    private File directory;
+
+    /**
+     * @param gitCommand the git executable, "git" by default
+     */
+    public void setGitCommand(String gitCommand){
+        this.gitCommand = gitCommand;
+    }
+    /**
+     * @param numstat true to weigh every change by the lines added and
+     *          removed (<code>--numstat</code>), false to weigh every change
+     *          with 1 (<code>--name-only</code>, the default, which is
+     *          faster)
+     */
+    public void setNumstat(boolean numstat){
+        this.numstat = numstat;
+    }
+    /**
+     * @param path a path or url
+     * @return true if it denotes a local git repository
+     */
+    public static boolean isGitRepository(String path){
+        File dir = toDirectory(path);
+        return dir != null && (new File(dir, ".git").exists() || new File(dir, "HEAD").isFile() && new File(dir, "objects").isDirectory());
+    }
+
+    /**
+     * Starts the log-lookup from the first to the last commit.
+     * @param url the path of the local clone or a file:// url
+     * @param name not used
+     * @param password not used
+     */
+    public void run(String url, String name, String password){
+        directory = toDirectory(url);
+        handleStart(url);
+        if(directory == null || !directory.isDirectory()){
+            if(!handleCreateRepositoryException(new IOException(url + " is not a local directory"), url)){
+                return;
+            }
+        }
+        String head;
+        try {
+            head = git("rev-parse", "--verify", "HEAD");
+            if(!handleFetchingLatestRepositoryRevision(head)){
+                return;
+            }
+        } catch (IOException ex) {
+            head = handleFetchingLatestRepositoryRevisionException(ex);
+            if(head == null){
+                return;
+            }
+        }
+        String since = getFetchStartRevision(head);
+        List<String> command = new ArrayList<String>(Arrays.asList(gitCommand, "-c", "core.quotepath=off", "log",
+                "--reverse", "--date-order", "--no-renames", "--format=format:%x01%H%x01%P%x01%at%x01%ae",
+                numstat ? "--numstat" : "--name-only", since == null ? head : since + ".." + head));
+        IOException failure = null;
+        try {
+            streamLog(command);
+        } catch (IOException ex) {
+            failure = ex;
+        }
+        if(failure != null && !handleCollectingLogInformationException(failure, url)){
+            return;
+        }
+        finishLogEntries();
+    }
+
+    /**
+     * @return the directory of the repository being read, or null if the
+     *          url does not denote one
+     */
+    protected File getDirectory(){
+        return directory;
+    }
+    /**
+     * Gets called once the latest commit is known, before the log is read.
+     * Derived classes that already hold the older commits (e.g. in a cache)
+     * return the last commit they have.
+     * @param head the latest commit
+     * @return the commit to read the log after, or null for the whole log
+     */
+    protected String getFetchStartRevision(String head){
+        return null;
+    }
+    /**
+     * @param ancestor a commit id
+     * @param descendant a commit id
+     * @return true if ancestor is part of the history of descendant
+     */
+    protected boolean isAncestor(String ancestor, String descendant){
+        try {
+            Process p = start(Arrays.asList(gitCommand, "merge-base", "--is-ancestor", ancestor, descendant));
+            p.getInputStream().close();
+            drain(p.getErrorStream());
+            return p.waitFor() == 0;
+        } catch (IOException ex) {
+            return false;
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    /**
+     * runs git log and passes every commit on as soon as its last changed
+     * file was read.
+     */
+    private void streamLog(List<String> command) throws IOException{
+        Process p = start(command);
+        StringBuffer errors = drainInBackground(p.getErrorStream());
+        BufferedReader in = new BufferedReader(new InputStreamReader(p.getInputStream(), "UTF-8"), 1 << 16);
+        try {
+            GitLogEntry entry = null;
+            String line;
+            while((line = in.readLine()) != null){
+                if(line.length() == 0){
+                    continue;
+                }
+                if(line.charAt(0) == COMMIT_MARK){
+                    if(entry != null){
+                        handleLogEntry(entry);
+                    }
+                    entry = parseHeader(line);
+                }else if(entry != null){
+                    if(numstat){
+                        // added, removed and path, separated by tabs; binary files have "-" counts
+                        int t1 = line.indexOf('\t');
+                        int t2 = t1 < 0 ? -1 : line.indexOf('\t', t1 + 1);
+                        if(t2 > 0){
+                            int weight = parseCount(line, 0, t1) + parseCount(line, t1 + 1, t2);
+                            entry.addPath(unquote(line.substring(t2 + 1)), Math.max(weight, 1));
+                        }
+                    }else{
+                        entry.addPath(unquote(line), 1);
+                    }
+                }
+            }
+            if(entry != null){
+                handleLogEntry(entry);
+            }
+        } finally {
+            in.close();
+            p.destroy();
+        }
+        try {
+            int exit = p.waitFor();
+            if(exit != 0){
+                throw new IOException("git log exited with " + exit + ": " + errors.toString().trim());
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new IOException("interrupted while reading the git log");
+        }
+    }
+
+    private static GitLogEntry parseHeader(String line) throws IOException{
+        // id, parents, date and author, each after a mark
+        int a = line.indexOf(COMMIT_MARK, 1);
+        int b = a < 0 ? -1 : line.indexOf(COMMIT_MARK, a + 1);
+        int c = b < 0 ? -1 : line.indexOf(COMMIT_MARK, b + 1);
+        if(c < 0){
+            throw new IOException("malformed commit line in git log: " + line);
+        }
+        String parents = line.substring(a + 1, b);
+        try {
+            long date = Long.parseLong(line.substring(b + 1, c)) * 1000;
+            return new GitLogEntry(line.substring(1, a), parents.length() == 0 ? NO_PARENTS : parents.split(" "),
+                    date, line.substring(c + 1));
+        } catch (NumberFormatException ex) {
+            throw new IOException("malformed commit date in git log: " + line);
+        }
+    }
+
+    private static int parseCount(String line, int from, int to){
+        int n = 0;
+        for(int i = from; i < to; i++){
+            char c = line.charAt(i);
+            if(c < '0' || c > '9'){
+                return 0;
+            }
+            n = n * 10 + (c - '0');
+        }
+        return n;
+    }
+
+    /**
+     * undoes the C-style quoting git applies to paths with special
+     * characters.
+     */
+    static String unquote(String path) throws UnsupportedEncodingException{
+        if(path.length() < 2 || path.charAt(0) != '"' || path.charAt(path.length() - 1) != '"'){
+            return path;
+        }
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(path.length());
+        for(int i = 1; i < path.length() - 1; i++){
+            char c = path.charAt(i);
+            if(c != '\\' || i + 1 >= path.length() - 1){
+                byte[] b = String.valueOf(c).getBytes("UTF-8");
+                bytes.write(b, 0, b.length);
+                continue;
+            }
+            char e = path.charAt(++i);
+            switch(e){
+                case 'n': bytes.write('\n'); break;
+                case 't': bytes.write('\t'); break;
+                case 'r': bytes.write('\r'); break;
+                case 'a': bytes.write(7); break;
+                case 'b': bytes.write('\b'); break;
+                case 'f': bytes.write('\f'); break;
+                case 'v': bytes.write(11); break;
+                default:
+                    if(e >= '0' && e <= '7' && i + 2 < path.length() - 1){
+                        // a byte of a multi-byte character, as three octal digits
+                        bytes.write(Integer.parseInt(path.substring(i, i + 3), 8));
+                        i += 2;
+                    }else{
+                        bytes.write(e);
+                    }
+            }
+        }
+        return bytes.toString("UTF-8");
+    }
+
+    /**
+     * runs a git command that prints a single line.
+     */
+    private String git(String... args) throws IOException{
+        List<String> command = new ArrayList<String>();
+        command.add(gitCommand);
+        command.addAll(Arrays.asList(args));
+        Process p = start(command);
+        StringBuffer errors = drainInBackground(p.getErrorStream());
+        BufferedReader in = new BufferedReader(new InputStreamReader(p.getInputStream(), "UTF-8"));
+        String line;
+        try {
+            line = in.readLine();
+        } finally {
+            in.close();
+        }
+        try {
+            if(p.waitFor() != 0 || line == null){
+                throw new IOException("git " + args[0] + " failed: " + errors.toString().trim());
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new IOException("interrupted while running git " + args[0]);
+        }
+        return line.trim();
+    }
+
+    private Process start(List<String> command) throws IOException{
+        ProcessBuilder builder = new ProcessBuilder(command);
+        builder.directory(directory);
+        return builder.start();
+    }
+
+    /**
+     * reads a stream on its own thread, so the process never blocks on a
+     * full pipe. Only the end of what was read is kept.
+     */
+    private static StringBuffer drainInBackground(final InputStream in){
+        final StringBuffer text = new StringBuffer();
+        Thread t = new Thread(new Runnable(){
+            public void run(){
+                try {
+                    byte[] buffer = new byte[4096];
+                    int n;
+                    while((n = in.read(buffer)) > 0){
+                        text.append(new String(buffer, 0, n, "UTF-8"));
+                        if(text.length() > 4096){
+                            text.delete(0, text.length() - 4096);
+                        }
+                    }
+                } catch (IOException ex) {
+                    // the process is gone, nothing more to read
+                } finally {
+                    try {
+                        in.close();
+                    } catch (IOException ex) {
+                        // ignored
+                    }
+                }
+            }
+        }, "code_swarm git stderr");
+        t.setDaemon(true);
+        t.start();
+        return text;
+    }
+
+    private static void drain(InputStream in) throws IOException{
+        try {
+            byte[] buffer = new byte[4096];
+            while(in.read(buffer) > 0){
+                // discard
+            }
+        } finally {
+            in.close();
+        }
+    }
+
+    private static File toDirectory(String url){
+        if(url == null){
+            return null;
+        }
+        if(url.startsWith("file:")){
+            try {
+                return new File(new URI(url));
+            } catch (URISyntaxException ex) {
+                return null;
+            } catch (IllegalArgumentException ex) {
+                return null;
+            }
+        }
+        if(url.indexOf("://") >= 0){
+            // only local clones can be read
+            return null;
+        }
+        return new File(url);
+    }
+}
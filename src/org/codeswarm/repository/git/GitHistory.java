@@ -0,0 +1,286 @@
+/* This file is part of code_swarm.
+
+code_swarm is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+code_swarm is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with code_swarm.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.codeswarm.repository.git;
+
+import java.io.IOException;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import org.codeswarm.repositoryevents.EventHandler;
+import org.codeswarm.repositoryevents.EventList;
+import org.codeswarm.repositoryevents.EventStore;
+
+/**
+ * Reads the log of a local git repository and stores the data.<br />
+ * The events are kept in an {@link EventStore}, keyed by the repository
+ * path, together with the last commit read. Later runs only read the
+ * commits after that one, unless the history was rewritten.<br />
+ * With an event handler set, the events are also passed on as they are
+ * read (after replaying the stored ones).<br />
+ * Long logs are stored in several segments as they are read, so an
+ * interrupted run resumes after the last stored commit. A segment may only
+ * end with a commit whose history is exactly what was read before it, that
+ * is when no branch read so far is still to be merged. The segments are
+ * written in the background while the log is read.
+ */
+public class GitHistory extends AbstractGitHistoryVisitor {
+    private static final Logger LOGGER = Logger.getLogger(GitHistory.class.getName());
+    /** Number of read events that are stored at the latest, by default */
+    public static final int CHECKPOINT_EVENTS = 1 << 20;
+    /** Time in milliseconds after which read events are stored at the latest, by default */
+    public static final long CHECKPOINT_MILLIS = 5 * 60 * 1000;
+    EventStore store;
+    String url;
+    EventList list = new EventList();
+    String latestCommit;
+    /** the last stored commit, null to read everything */
+    String cachedCommit;
+    /** the number of stored commits */
+    long cachedCount;
+    /** the number of commits read since the last checkpoint */
+    long commitCount;
+    /** the heads of the branches read, the commits read that are no parent of another one read */
+    Set<String> tips = new HashSet<String>();
+    int checkpointEvents = CHECKPOINT_EVENTS;
+    long checkpointMillis = CHECKPOINT_MILLIS;
+    long lastCheckpoint = System.currentTimeMillis();
+    /** the segment being stored in the background, null if none is */
+    Future<Void> write;
+    /** the events and the number of commits of the segment being stored */
+    EventList writing;
+    long writingCount;
+    /** receives the events as they are read, may be null */
+    EventHandler handler;
+
+    /**
+     * creates an instance of GitHistory.
+     * @param store the store holding the events of earlier runs
+     */
+    public GitHistory(EventStore store){
+        this.store = store;
+    }
+    /**
+     * @return the store the events are kept in
+     */
+    public EventStore getEventStore(){
+        return store;
+    }
+    /**
+     * sets a handler that receives every event as soon as it is read.
+     * Events that are already stored are passed on first.
+     * @param handler the handler, or null to only store the events
+     */
+    public void setEventHandler(EventHandler handler){
+        this.handler = handler;
+    }
+    /**
+     * sets how often the commits read are stored while the log is read.
+     * @param events the number of events after which they are stored
+     * @param millis the time in milliseconds after which they are stored
+     */
+    public void setCheckpointInterval(int events, long millis){
+        this.checkpointEvents = events;
+        this.checkpointMillis = millis;
+    }
+    /**
+     * stores the repository path. The events are stored under the canonical
+     * path of the repository, so a path and a file:// url of the same
+     * clone share them.
+     * @param url the repository path
+     */
+    public void handleStart(String url){
+        this.url = url;
+        if(getDirectory() != null){
+            try {
+                this.url = getDirectory().getCanonicalPath();
+            } catch (IOException ex) {
+                LOGGER.log(Level.FINE, "using {0} as is: {1}", new Object[]{url, ex.getMessage()});
+            }
+        }
+    }
+    /**
+     * looks up the store. Stops proceeding if the latest commit is stored
+     * already.
+     * @param head the latest commit
+     * @return false if every commit is stored, true if the log shall be read
+     */
+    public boolean handleFetchingLatestRepositoryRevision(String head){
+        latestCommit = head;
+        cachedCommit = store.getLastRevisionId(url);
+        cachedCount = store.getLastRevision(url);
+        if(cachedCommit != null && !cachedCommit.equals(head) && !isAncestor(cachedCommit, head)){
+            // the history was rewritten, the stored commits may be gone
+            LOGGER.log(Level.FINE, "dropping the stored commits of {0}, {1} is not an ancestor of {2}", new Object[]{url, cachedCommit, head});
+            try {
+                store.remove(url);
+            } catch (IOException ex) {
+                LOGGER.log(Level.SEVERE, null, ex);
+            }
+            cachedCommit = null;
+        }
+        if(cachedCommit == null){
+            cachedCount = 0;
+        }
+        replayStore();
+        if(head.equals(cachedCommit)){
+            LOGGER.log(Level.FINE, "skip reading {0}, {1} is stored already", new Object[]{url, head});
+            return false;
+        }
+        return true;
+    }
+    /**
+     * @param head the latest commit
+     * @return the last stored commit, if there is one
+     */
+    protected String getFetchStartRevision(String head){
+        return cachedCommit;
+    }
+    /**
+     * processes a commit. Adds its changes to the EventList.
+     * @param entry the commit
+     */
+    public void handleLogEntry(GitLogEntry entry){
+        commitCount++;
+        // parents are read before their children
+        for(String parent : entry.getParents()){
+            tips.remove(parent);
+        }
+        tips.add(entry.getId());
+        for(int i = 0; i < entry.getPathCount(); i++){
+            list.add(entry.getDate(), entry.getAuthor(), entry.getPath(i), entry.getWeight(i));
+            if(handler != null){
+                handler.handleEvent(entry.getDate(), entry.getAuthor(), entry.getPath(i), entry.getWeight(i));
+            }
+        }
+        if(tips.size() == 1
+                && (list.size() >= checkpointEvents || System.currentTimeMillis() - lastCheckpoint >= checkpointMillis)){
+            checkpoint(entry.getId());
+        }
+    }
+    /**
+     * stores the commits read since the last checkpoint as a new segment,
+     * in the background. If that fails, they are kept and stored with the
+     * next checkpoint.
+     * @param commit the last commit of the segment
+     */
+    private void checkpoint(String commit){
+        lastCheckpoint = System.currentTimeMillis();
+        if(!awaitWrite()){
+            // the commits of the failed segment go with the ones read since
+            for(int i = 0; i < list.size(); i++){
+                writing.add(list.getDate(i), list.getAuthor(i), list.getFilename(i), list.getWeight(i));
+            }
+            list = writing;
+            commitCount += writingCount;
+        }
+        writing = null;
+        if(commitCount == 0 && commit.equals(store.getLastRevisionId(url))){
+            return;
+        }
+        LOGGER.log(Level.FINE, "storing {0} commits of {1} up to {2}", new Object[]{String.valueOf(commitCount), url, commit});
+        write = store.submitSegment(url, cachedCount + 1, cachedCount + commitCount, commit, list);
+        writing = list;
+        writingCount = commitCount;
+        commitCount = 0;
+        // a fresh list, so the strings of the stored events don't pile up
+        list = new EventList();
+    }
+    /**
+     * waits until the segment being stored is written. Only then the
+     * commits after it are the ones to store next.
+     * @return false if it could not be stored
+     */
+    private boolean awaitWrite(){
+        if(write == null){
+            return true;
+        }
+        boolean stored = false;
+        try {
+            write.get();
+            cachedCount += writingCount;
+            stored = true;
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            LOGGER.log(Level.SEVERE, "interrupted while storing the commits of {0}", url);
+        } catch (ExecutionException ex) {
+            LOGGER.log(Level.SEVERE, null, ex.getCause());
+        }
+        write = null;
+        return stored;
+    }
+    /**
+     * stores the remaining commits read as a new segment after the stored
+     * ones.
+     */
+    public void finishLogEntries(){
+        checkpoint(latestCommit);
+        awaitWrite();
+    }
+    /**
+     * Logs an error statement and stops further processing
+     * @param e the orginal exception
+     * @param url the repository path
+     * @return false
+     */
+    public boolean handleCreateRepositoryException(IOException e, String url){
+        LOGGER.log(Level.SEVERE, "cannot read the git repository {0} : {1}", new Object[]{url, e.getMessage()});
+        return false;
+    }
+    /**
+     * Logs an error statement, passes the stored events on to the handler
+     * and stops further processing.
+     * @param e the orginal exception
+     * @return null.
+     */
+    public String handleFetchingLatestRepositoryRevisionException(IOException e){
+        LOGGER.log(Level.SEVERE, "error while looking up the latest commit: {0}", e.getMessage());
+        replayStore();
+        return null;
+    }
+    /**
+     * Logs an error statement, stores the commits read if they end at a
+     * checkpoint and stops further processing
+     * @param e the orginal exception
+     * @param url the repository path
+     * @return false
+     */
+    public boolean handleCollectingLogInformationException(IOException e, String url){
+        LOGGER.log(Level.SEVERE, "error while reading the log of {0} : {1}", new Object[]{url, e.getMessage()});
+        // keep what was read, the next run goes on from there
+        if(tips.size() == 1){
+            checkpoint(tips.iterator().next());
+        }
+        awaitWrite();
+        return false;
+    }
+
+    /**
+     * passes the stored events on to the handler, if there is one.
+     */
+    private void replayStore(){
+        if(handler == null){
+            return;
+        }
+        try {
+            store.replay(url, handler);
+        } catch (IOException ex) {
+            LOGGER.log(Level.SEVERE, null, ex);
+        }
+    }
+}
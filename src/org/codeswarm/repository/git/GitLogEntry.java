@@ -0,0 +1,104 @@
+/* This file is part of code_swarm.
+
+code_swarm is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+code_swarm is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with code_swarm.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.codeswarm.repository.git;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * represents a commit read from <code>git log</code>: its id, parents, date,
+ * author and the files it changed. Just a simple bean.
+ */
+public class GitLogEntry {
+    private final String id;
+    private final String[] parents;
+    private final long date;
+    private final String author;
+    private final List<String> paths = new ArrayList<String>();
+    private int[] weights = new int[8];
+
+    /**
+     * creates an entry without changed files.
+     * @param id the commit id
+     * @param parents the ids of the parent commits
+     * @param date the author date in milliseconds
+     * @param author the author
+     */
+    public GitLogEntry(String id, String[] parents, long date, String author){
+        this.id = id;
+        this.parents = parents;
+        this.date = date;
+        this.author = author;
+    }
+    /**
+     * adds a changed file.
+     * @param path the path of the file, relative to the repository root
+     * @param weight the number of lines added and removed, 1 if unknown
+     */
+    public void addPath(String path, int weight){
+        if(paths.size() == weights.length){
+            int[] grown = new int[weights.length * 2];
+            System.arraycopy(weights, 0, grown, 0, weights.length);
+            weights = grown;
+        }
+        weights[paths.size()] = weight;
+        paths.add(path);
+    }
+    /**
+     * @return the commit id
+     */
+    public String getId(){
+        return id;
+    }
+    /**
+     * @return the ids of the parent commits
+     */
+    public String[] getParents(){
+        return parents;
+    }
+    /**
+     * @return the author date in milliseconds
+     */
+    public long getDate(){
+        return date;
+    }
+    /**
+     * @return the author
+     */
+    public String getAuthor(){
+        return author;
+    }
+    /**
+     * @return the number of changed files
+     */
+    public int getPathCount(){
+        return paths.size();
+    }
+    /**
+     * @param i the index of a changed file
+     * @return its path
+     */
+    public String getPath(int i){
+        return paths.get(i);
+    }
+    /**
+     * @param i the index of a changed file
+     * @return its weight
+     */
+    public int getWeight(int i){
+        return weights[i];
+    }
+}
@@ -18,10 +18,21 @@ along with code_swarm.  If not, see <http://www.gnu.org/licenses/>.
 
 package org.codeswarm.repository.svn;
 
-import java.util.Collection;
-import java.util.Iterator;
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
 
 import org.codeswarm.repository.RepositoryHistoryVisitor;
+import org.tmatesoft.svn.core.ISVNLogEntryHandler;
+import org.tmatesoft.svn.core.SVNCancelException;
 import org.tmatesoft.svn.core.SVNException;
 import org.tmatesoft.svn.core.SVNLogEntry;
 import org.tmatesoft.svn.core.SVNURL;
@@ -37,12 +48,31 @@ import org.tmatesoft.svn.core.wc.SVNWCUtil;
  * Provides access to the repository log of svn-repositories. Using SVNKit.<br />
  * It simply visits all entries of the log and calls the corresponding hooks.<br />
  * 
- * Derived classes must implement the hooks to perform corresponding operations.
+ * Derived classes must implement the hooks to perform corresponding operations.<br />
+ * The log is streamed: entries are fetched on a separate thread into a small
+ * bounded buffer and handed to {@link #handleLogEntry} as they arrive, so the
+ * history is never held in memory as a whole.<br />
+ * With {@link #setFetchThreads(int)} the log is fetched in revision ranges,
+ * each on its own session, which are handed to the hooks in revision order.
  * @see org.codeswarm.repository.RepositoryHistoryVisitor
  * NOTE: The class is work in progress and should be improved.
  * @author tpraxl
  */
 public abstract class AbstractSVNHistoryVisitor implements RepositoryHistoryVisitor<SVNLogEntry, SVNException, Long>{
+    /** Number of log entries fetched ahead of {@link #handleLogEntry} */
+    private static final int LOG_BUFFER_SIZE = 1024;
+    /** Marks the end of the fetched log in the buffer */
+    private static final SVNLogEntry END_OF_LOG = new SVNLogEntry(null, -1, null, null, null);
+    /** Smallest revision range fetched by one session in parallel mode */
+    private static final long MIN_RANGE_SIZE = 100;
+    /** Largest revision range fetched by one session in parallel mode */
+    private static final long MAX_RANGE_SIZE = 2000;
+
+    private int fetchThreads = 1;
+    private SVNURL location;
+    private String name;
+    private String password;
+
     /**
      * Starts the repository-log-lookup from the first to the last revision.
      * @see #run(String, Long, Long, String, String)
@@ -110,6 +140,9 @@ public abstract class AbstractSVNHistoryVisitor implements RepositoryHistoryVisi
          */
         ISVNAuthenticationManager authManager = SVNWCUtil.createDefaultAuthenticationManager(name, password);
         repository.setAuthenticationManager(authManager);
+        this.location = repository.getLocation();
+        this.name = name;
+        this.password = password;
 
         /*
          * Gets the latest revision number of the repository
@@ -127,58 +160,220 @@ public abstract class AbstractSVNHistoryVisitor implements RepositoryHistoryVisi
                 endRevision = revision;
             }
         }
+        startRevision = getFetchStartRevision(startRevision);
 
-        Collection logEntries = null;
+        /*
+         * Streams SVNLogEntry objects for all revisions in the range
+         * defined by its start and end points [startRevision, endRevision].
+         * For each revision commit information is represented by
+         * SVNLogEntry.
+         * 
+         * the 1st parameter (targetPaths - an array of path strings) is set
+         * when restricting the [startRevision, endRevision] range to only
+         * those revisions when the paths in targetPaths were changed.
+         * 
+         * startRevision, endRevision - to define a range of revisions you are
+         * interested in; by default in this program - startRevision=0, endRevision=
+         * the latest (HEAD) revision of the repository.
+         * 
+         * the 4th parameter - a boolean flag changedPath - if true then for
+         * each revision a corresponding SVNLogEntry will contain a map of
+         * all paths which were changed in that revision.
+         * 
+         * the 5th parameter - a boolean flag strictNode - if false and a
+         * changed path is a copy (branch) of an existing one in the repository
+         * then the history for its origin will be traversed; it means the 
+         * history of changes of the target URL (and all that there's in that 
+         * URL) will include the history of the origin path(s).
+         * Otherwise if strictNode is true then the origin path history won't be
+         * included.
+         * 
+         * The last parameter receives every SVNLogEntry as soon as it is read.
+         * The entries are passed through a bounded buffer, so the network is
+         * read while the hooks process earlier entries, and a slow hook makes
+         * the fetch wait instead of piling up entries.
+         * 
+         * With more than one fetch thread the range is split into smaller
+         * revision ranges that are fetched side by side, each on its own
+         * session, and handed to the hooks in revision order.
+         */
+        SVNException failure;
         try {
-            /*
-             * Collects SVNLogEntry objects for all revisions in the range
-             * defined by its start and end points [startRevision, endRevision].
-             * For each revision commit information is represented by
-             * SVNLogEntry.
-             * 
-             * the 1st parameter (targetPaths - an array of path strings) is set
-             * when restricting the [startRevision, endRevision] range to only
-             * those revisions when the paths in targetPaths were changed.
-             * 
-             * the 2nd parameter if non-null - is a user's Collection that will
-             * be filled up with found SVNLogEntry objects; it's just another
-             * way to reach the scope.
-             * 
-             * startRevision, endRevision - to define a range of revisions you are
-             * interested in; by default in this program - startRevision=0, endRevision=
-             * the latest (HEAD) revision of the repository.
-             * 
-             * the 5th parameter - a boolean flag changedPath - if true then for
-             * each revision a corresponding SVNLogEntry will contain a map of
-             * all paths which were changed in that revision.
-             * 
-             * the 6th parameter - a boolean flag strictNode - if false and a
-             * changed path is a copy (branch) of an existing one in the repository
-             * then the history for its origin will be traversed; it means the 
-             * history of changes of the target URL (and all that there's in that 
-             * URL) will include the history of the origin path(s).
-             * Otherwise if strictNode is true then the origin path history won't be
-             * included.
-             * 
-             * The return value is a Collection filled up with SVNLogEntry Objects.
-             */
-            logEntries = repository.log(new String[] {""}, null,
-                    startRevision, endRevision, true, true);
-
-        } catch (SVNException svne) {
-            handleCollectingLogInformationException(svne,url);
+            if(fetchThreads > 1 && endRevision - startRevision >= MIN_RANGE_SIZE){
+                repository.closeSession();
+                failure = fetchRanges(repository.getLocation(), name, password, startRevision, endRevision);
+            }else{
+                failure = fetchStreaming(repository, startRevision, endRevision);
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            return;
+        } finally {
+            repository.closeSession();
         }
-        for (Iterator entries = logEntries.iterator(); entries.hasNext();) {
-            
-            /*
-             * gets a next SVNLogEntry
-             */
-            SVNLogEntry logEntry = (SVNLogEntry) entries.next();
-            handleLogEntry(logEntry);
+        if(failure != null && !handleCollectingLogInformationException(failure, url)){
+            return;
         }
         finishLogEntries();
     }
 
+    /**
+     * sets the number of sessions fetching the log side by side.
+     * @param threads the number of threads, 1 (the default) fetches the
+     *          log in one piece, 0 uses one thread per processor
+     */
+    public void setFetchThreads(int threads){
+        fetchThreads = threads > 0 ? threads : Runtime.getRuntime().availableProcessors();
+    }
+    /**
+     * @return the number of sessions fetching the log side by side
+     */
+    public int getFetchThreads(){
+        return fetchThreads;
+    }
+
+    /**
+     * opens another session to the repository being visited, e.g. for a
+     * thread of its own.
+     * @return the new session
+     * @throws org.tmatesoft.svn.core.SVNException when the session cannot be
+     *          created
+     */
+    protected SVNRepository createSession() throws SVNException{
+        SVNRepository repository = SVNRepositoryFactory.create(location);
+        repository.setAuthenticationManager(SVNWCUtil.createDefaultAuthenticationManager(name, password));
+        return repository;
+    }
+
+    /**
+     * fetches the log on one session and streams it to the hooks.
+     * @return the exception that stopped the fetch, or null
+     */
+    private SVNException fetchStreaming(final SVNRepository repository, final long startRevision,
+            final long endRevision) throws InterruptedException{
+        final BlockingQueue<SVNLogEntry> buffer = new ArrayBlockingQueue<SVNLogEntry>(LOG_BUFFER_SIZE);
+        final SVNException[] failure = new SVNException[1];
+        Thread fetcher = new Thread(new Runnable(){
+            public void run(){
+                try {
+                    repository.log(new String[] {""}, startRevision, endRevision, true, true, new ISVNLogEntryHandler(){
+                        public void handleLogEntry(SVNLogEntry logEntry) throws SVNException{
+                            try {
+                                buffer.put(logEntry);
+                            } catch (InterruptedException ex) {
+                                Thread.currentThread().interrupt();
+                                throw new SVNCancelException();
+                            }
+                        }
+                    });
+                } catch (SVNException svne) {
+                    failure[0] = svne;
+                } finally {
+                    try {
+                        buffer.put(END_OF_LOG);
+                    } catch (InterruptedException ex) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+            }
+        }, "code_swarm svn log");
+        fetcher.setDaemon(true);
+        fetcher.start();
+        try {
+            SVNLogEntry logEntry;
+            while((logEntry = buffer.take()) != END_OF_LOG){
+                handleLogEntry(logEntry);
+            }
+        } catch (InterruptedException ex) {
+            fetcher.interrupt();
+            throw ex;
+        }
+        // failure was set before END_OF_LOG was put, so it is visible here
+        return failure[0];
+    }
+
+    /**
+     * fetches the log in revision ranges on a pool of sessions and passes
+     * the ranges to the hooks in order. Only a few ranges per thread are
+     * held at a time.
+     * @return the exception that stopped the fetch, or null
+     */
+    private SVNException fetchRanges(final SVNURL url, final String name, final String password,
+            long startRevision, long endRevision) throws InterruptedException{
+        int ranges = fetchThreads * 4;
+        long rangeSize = (endRevision - startRevision + ranges) / ranges;
+        rangeSize = Math.max(MIN_RANGE_SIZE, Math.min(MAX_RANGE_SIZE, rangeSize));
+        ExecutorService pool = Executors.newFixedThreadPool(fetchThreads, new ThreadFactory(){
+            public Thread newThread(Runnable r){
+                Thread t = new Thread(r, "code_swarm svn log");
+                t.setDaemon(true);
+                return t;
+            }
+        });
+        LinkedList<Future<List<SVNLogEntry>>> inFlight = new LinkedList<Future<List<SVNLogEntry>>>();
+        long next = startRevision;
+        try {
+            while(next <= endRevision || !inFlight.isEmpty()){
+                while(inFlight.size() < fetchThreads * 2 && next <= endRevision){
+                    final long from = next;
+                    final long to = Math.min(endRevision, next + rangeSize - 1);
+                    next = to + 1;
+                    inFlight.add(pool.submit(new Callable<List<SVNLogEntry>>(){
+                        public List<SVNLogEntry> call() throws SVNException{
+                            return fetchRange(url, name, password, from, to);
+                        }
+                    }));
+                }
+                List<SVNLogEntry> entries;
+                try {
+                    entries = inFlight.removeFirst().get();
+                } catch (ExecutionException ex) {
+                    if(ex.getCause() instanceof SVNException){
+                        return (SVNException)ex.getCause();
+                    }
+                    throw new RuntimeException(ex.getCause());
+                }
+                for(SVNLogEntry logEntry : entries){
+                    handleLogEntry(logEntry);
+                }
+            }
+            return null;
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    /**
+     * fetches one revision range on its own session.
+     */
+    private static List<SVNLogEntry> fetchRange(SVNURL url, String name, String password,
+            long startRevision, long endRevision) throws SVNException{
+        final List<SVNLogEntry> entries = new ArrayList<SVNLogEntry>();
+        SVNRepository repository = SVNRepositoryFactory.create(url);
+        try {
+            repository.setAuthenticationManager(SVNWCUtil.createDefaultAuthenticationManager(name, password));
+            repository.log(new String[] {""}, startRevision, endRevision, true, true, new ISVNLogEntryHandler(){
+                public void handleLogEntry(SVNLogEntry logEntry){
+                    entries.add(logEntry);
+                }
+            });
+        } finally {
+            repository.closeSession();
+        }
+        return entries;
+    }
+
+    /**
+     * Gets called once the latest revision is known, before the log is
+     * fetched. Derived classes that already hold the older revisions (e.g.
+     * in a cache) return the first revision they are missing.
+     * @param startRevision the revision the caller asked to start with
+     * @return the first revision to fetch
+     */
+    protected long getFetchStartRevision(long startRevision){
+        return startRevision;
+    }
+
     /*
      * Initializes the library to work with a repository via 
      * different protocols.
@@ -0,0 +1,222 @@
+/* This file is part of code_swarm.
+
+code_swarm is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+code_swarm is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with code_swarm.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.codeswarm.repository.svn;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.codeswarm.repositoryevents.WeightCache;
+import org.tmatesoft.svn.core.SVNDirEntry;
+import org.tmatesoft.svn.core.SVNException;
+import org.tmatesoft.svn.core.SVNLogEntry;
+import org.tmatesoft.svn.core.SVNLogEntryPath;
+import org.tmatesoft.svn.core.SVNNodeKind;
+import org.tmatesoft.svn.core.SVNProperty;
+import org.tmatesoft.svn.core.io.SVNRepository;
+
+import de.regnis.q.sequence.QSequenceDifferenceBlock;
+import de.regnis.q.sequence.core.QSequenceException;
+import de.regnis.q.sequence.line.QSequenceLineMedia;
+import de.regnis.q.sequence.line.QSequenceLineRAByteData;
+import de.regnis.q.sequence.line.QSequenceLineResult;
+
+/**
+ * Weighs the changes of svn revisions by the lines added and removed per
+ * path (like <code>git log --numstat</code>), on a pool of threads with a
+ * session each.<br />
+ * Every changed file is fetched before and after the revision (or from
+ * where it was copied) and diffed with the line diff of SVNKit. That reads
+ * every changed file twice, which is fine for file:// mirrors but slow
+ * over the network. The weights are kept in a {@link WeightCache}, so each
+ * revision is diffed only once.<br />
+ * Directories, binary files and files above {@link #MAX_FILE_SIZE} weigh
+ * 1, as does every change that could not be diffed.
+ */
+public class LineChangeCounter {
+    private static final Logger LOGGER = Logger.getLogger(LineChangeCounter.class.getName());
+    /** Files larger than this are not diffed */
+    public static final long MAX_FILE_SIZE = 8 << 20;
+
+    private final AbstractSVNHistoryVisitor visitor;
+    private final WeightCache cache;
+    private final String url;
+    private final ExecutorService pool;
+    private final List<SVNRepository> sessions = new ArrayList<SVNRepository>();
+    private final ThreadLocal<SVNRepository> session = new ThreadLocal<SVNRepository>();
+
+    /**
+     * creates a counter.
+     * @param visitor opens the sessions to the repository
+     * @param url the repository url, the key of the weights in the cache
+     * @param cache the cache for the weights, may be null
+     * @param threads the number of threads diffing side by side
+     */
+    public LineChangeCounter(AbstractSVNHistoryVisitor visitor, String url, WeightCache cache, int threads){
+        this.visitor = visitor;
+        this.url = url;
+        this.cache = cache;
+        pool = Executors.newFixedThreadPool(threads, new ThreadFactory(){
+            public Thread newThread(Runnable r){
+                Thread t = new Thread(r, "code_swarm svn diff");
+                t.setDaemon(true);
+                return t;
+            }
+        });
+    }
+    /**
+     * weighs the changes of a revision on the pool.
+     * @param logEntry the revision
+     * @return the weight of every changed path
+     */
+    public Future<Map<String, Integer>> submit(final SVNLogEntry logEntry){
+        return pool.submit(new Callable<Map<String, Integer>>(){
+            public Map<String, Integer> call() throws SVNException, IOException{
+                return count(logEntry);
+            }
+        });
+    }
+    /**
+     * stops the threads and closes their sessions.
+     */
+    public void shutdown(){
+        pool.shutdownNow();
+        synchronized(sessions){
+            for(SVNRepository repository : sessions){
+                repository.closeSession();
+            }
+            sessions.clear();
+        }
+    }
+
+    /**
+     * weighs the changes of a revision, looking it up in the cache first.
+     * @param logEntry the revision
+     * @return the weight of every changed path
+     * @throws org.tmatesoft.svn.core.SVNException when the repository cannot
+     *          be read
+     * @throws java.io.IOException when the cache cannot be accessed
+     */
+    public Map<String, Integer> count(SVNLogEntry logEntry) throws SVNException, IOException{
+        String revision = String.valueOf(logEntry.getRevision());
+        Map<?, ?> changedPaths = logEntry.getChangedPaths();
+        if(cache != null){
+            Map<String, Integer> weights = cache.get(url, revision);
+            if(weights != null && weights.keySet().containsAll(changedPaths.keySet())){
+                return weights;
+            }
+        }
+        SVNRepository repository = getSession();
+        Map<String, Integer> weights = new LinkedHashMap<String, Integer>();
+        for(Iterator<?> i = changedPaths.values().iterator(); i.hasNext();){
+            SVNLogEntryPath entryPath = (SVNLogEntryPath)i.next();
+            weights.put(entryPath.getPath(), Integer.valueOf(count(repository, entryPath, logEntry.getRevision())));
+        }
+        if(cache != null){
+            cache.put(url, revision, weights);
+        }
+        return weights;
+    }
+
+    /**
+     * @return the lines added and removed at the path, at least 1
+     */
+    private int count(SVNRepository repository, SVNLogEntryPath entryPath, long revision) throws SVNException{
+        String path = entryPath.getPath();
+        byte[] after = null;
+        if(entryPath.getType() != 'D'){
+            after = fetch(repository, path, revision);
+            if(after == null){
+                return 1;
+            }
+        }
+        byte[] before = null;
+        if(entryPath.getCopyPath() != null){
+            before = fetch(repository, entryPath.getCopyPath(), entryPath.getCopyRevision());
+        }else if(entryPath.getType() == 'M' || entryPath.getType() == 'D'){
+            before = fetch(repository, path, revision - 1);
+        }
+        if(after == null && before == null){
+            return 1;
+        }
+        try {
+            QSequenceLineResult result = QSequenceLineMedia.createBlocks(
+                    new QSequenceLineRAByteData(before != null ? before : new byte[0]),
+                    new QSequenceLineRAByteData(after != null ? after : new byte[0]));
+            int lines = 0;
+            try {
+                for(Iterator<?> i = result.getBlocks().iterator(); i.hasNext();){
+                    QSequenceDifferenceBlock block = (QSequenceDifferenceBlock)i.next();
+                    lines += block.getLeftSize() + block.getRightSize();
+                }
+            } finally {
+                result.close();
+            }
+            return Math.max(lines, 1);
+        } catch (IOException ex) {
+            LOGGER.log(Level.FINE, "cannot diff " + path + " in revision " + revision, ex);
+            return 1;
+        } catch (QSequenceException ex) {
+            LOGGER.log(Level.FINE, "cannot diff " + path + " in revision " + revision, ex);
+            return 1;
+        }
+    }
+
+    /**
+     * @return the contents of a text file, or null for anything that is not
+     *          diffed
+     */
+    private static byte[] fetch(SVNRepository repository, String path, long revision) throws SVNException{
+        if(revision < 0){
+            return null;
+        }
+        SVNDirEntry entry = repository.info(path, revision);
+        if(entry == null || entry.getKind() != SVNNodeKind.FILE || entry.getSize() > MAX_FILE_SIZE){
+            return null;
+        }
+        Map<Object, Object> properties = new HashMap<Object, Object>();
+        ByteArrayOutputStream contents = new ByteArrayOutputStream((int)entry.getSize());
+        repository.getFile(path, revision, properties, contents);
+        if(SVNProperty.isBinaryMimeType((String)properties.get(SVNProperty.MIME_TYPE))){
+            return null;
+        }
+        return contents.toByteArray();
+    }
+
+    private SVNRepository getSession() throws SVNException{
+        SVNRepository repository = session.get();
+        if(repository == null){
+            repository = visitor.createSession();
+            session.set(repository);
+            synchronized(sessions){
+                sessions.add(repository);
+            }
+        }
+        return repository;
+    }
+}
@@ -18,54 +18,109 @@ along with code_swarm.  If not, see <http://www.gnu.org/licenses/>.
 package org.codeswarm.repository.svn;
 
 
-import org.codeswarm.repositoryevents.CodeSwarmEventsSerializer;
-import org.codeswarm.repositoryevents.Event;
+import org.codeswarm.repositoryevents.EventHandler;
+import org.codeswarm.repositoryevents.EventStore;
+import org.codeswarm.repositoryevents.WeightCache;
 import java.io.IOException;
 import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
 import java.util.logging.Level;
 import java.util.logging.Logger;
-import java.util.prefs.BackingStoreException;
-import java.util.prefs.Preferences;
-import javax.xml.parsers.ParserConfigurationException;
-import javax.xml.transform.TransformerConfigurationException;
-import javax.xml.transform.TransformerException;
 import org.codeswarm.repositoryevents.EventList;
 import org.tmatesoft.svn.core.SVNException;
 import org.tmatesoft.svn.core.SVNLogEntry;
 import org.tmatesoft.svn.core.SVNLogEntryPath;
 
 /**
- * Performs the repository lookup and serializes the data.
+ * Performs the repository lookup and stores the data.<br />
+ * The events are kept in an {@link EventStore}, keyed by the repository
+ * url. Later runs only fetch the revisions after the stored ones and add
+ * them as a new segment. Long fetches are stored in several segments as they
+ * go (see {@link #setCheckpointInterval(int, long)}), so a fetch that is
+ * interrupted resumes after the last stored revision. The segments are
+ * written in the background while the fetch goes on.<br />
+ * With an event handler set, the events are also passed on as they are
+ * fetched (after replaying the stored ones), so they can be shown while the
+ * log is still being read.<br />
+ * With {@link #setLineWeights(WeightCache, int)} every change is weighed by
+ * the lines it added and removed, computed by a {@link LineChangeCounter}
+ * while the log is fetched.
  * @author tpraxl
  */
 public class SVNHistory extends AbstractSVNHistoryVisitor {
     private static final Logger LOGGER = Logger.getLogger(SVNHistory.class.getName());
-    String filename;
+    /** Number of fetched events that are stored at the latest, by default */
+    public static final int CHECKPOINT_EVENTS = 1 << 20;
+    /** Time in milliseconds after which fetched events are stored at the latest, by default */
+    public static final long CHECKPOINT_MILLIS = 5 * 60 * 1000;
+    EventStore store;
     String url;
     EventList list = new EventList();
+    long latestRevision = -1;
+    /** the last stored revision, -1 to fetch everything */
+    long cachedRevision = -1;
+    /** the last revision whose events were all added to the list */
+    long completedRevision = -1;
+    int checkpointEvents = CHECKPOINT_EVENTS;
+    long checkpointMillis = CHECKPOINT_MILLIS;
+    long lastCheckpoint = System.currentTimeMillis();
+    /** the segment being stored in the background, null if none is */
+    Future<Void> write;
+    /** the events and the last revision of the segment being stored */
+    EventList writing;
+    long writingRevision;
+    /** receives the events as they are fetched, may be null */
+    EventHandler handler;
+    /** number of threads computing line weights, 0 if they are not computed */
+    int weightThreads;
+    WeightCache weightCache;
+    LineChangeCounter counter;
+    /** the entries whose weights are being computed, in revision order */
+    LinkedList<PendingEntry> pending = new LinkedList<PendingEntry>();
     /**
      * creates an instance of SVNHistory.
-     * @param filename the path to the (xml-)file to serialize the data to.
+     * @param store the store holding the events of earlier fetches
      */
-    public SVNHistory(String filename){
-        this.filename =filename;
+    public SVNHistory(EventStore store){
+        this.store = store;
     }
     /**
-     * @return the path to the file the data is serialized to.
+     * @return the store the events are kept in
      */
-    public String getFilePath(){
-        return "data/"+filename+this.url.hashCode()+".xml";
+    public EventStore getEventStore(){
+        return store;
     }
     /**
-     * clears the entire revision cache.
+     * sets a handler that receives every event as soon as it is fetched.
+     * Events that are already stored are passed on first.
+     * @param handler the handler, or null to only store the events
      */
-    public static void clearCache(){
-        try {
-            Preferences.userNodeForPackage(SVNHistory.class).clear();
-        } catch (BackingStoreException ex) {
-            Logger.getLogger(SVNHistory.class.getName()).log(Level.SEVERE, null, ex);
-        }
+    public void setEventHandler(EventHandler handler){
+        this.handler = handler;
+    }
+    /**
+     * sets how often the fetched revisions are stored while the log is
+     * fetched.
+     * @param events the number of events after which they are stored
+     * @param millis the time in milliseconds after which they are stored
+     */
+    public void setCheckpointInterval(int events, long millis){
+        this.checkpointEvents = events;
+        this.checkpointMillis = millis;
+    }
+    /**
+     * makes every change weigh the lines it added and removed instead of 1.
+     * @param cache the cache for the weights, may be null
+     * @param threads the number of threads computing the weights, 0 uses
+     *          one per processor
+     */
+    public void setLineWeights(WeightCache cache, int threads){
+        this.weightCache = cache;
+        this.weightThreads = threads > 0 ? threads : Runtime.getRuntime().availableProcessors();
     }
     /**
      * stores the repository url
@@ -75,45 +130,74 @@ public class SVNHistory extends AbstractSVNHistoryVisitor {
         this.url = url;
     }
     /**
-     * looks up the cache. Stops proceeding if a cached version for this
-     * repository was found.
+     * looks up the store. Stops proceeding if every revision of this
+     * repository is stored already. Otherwise only the newer revisions are
+     * fetched.
      * @param pRevision the latest repository revision.
-     * @return false if a cached version was found, true if the history shall 
+     * @return false if every revision is stored, true if the history shall 
      * be fetched from repository.
      */
     public boolean handleFetchingLatestRepositoryRevision(Long pRevision) {
         long revision = pRevision.longValue();
-        Preferences p = Preferences.userNodeForPackage(SVNHistory.class);
-        long l= p.getLong(Integer.toString(this.url.hashCode()), -1l);
-        if(l==revision){
-            LOGGER.log(Level.FINE,"skip fetching {0} (latest revision is {1}) for {2}",new Object[]{String.valueOf(l),revision,this.url});
-            return false;
-        }else{
-            LOGGER.log(Level.FINE, "proceed fetching (latest revision is {0} , cached revision is {1} for repository {2}", new Object[]{String.valueOf(pRevision), String.valueOf(l), this.url});
-            Preferences.userNodeForPackage(SVNHistory.class).putLong(Integer.toString(this.url.hashCode()), revision);
+        long l = store.getLastRevision(this.url);
+        if(l > revision){
+            // the repository was replaced by a different one at the same url
+            LOGGER.log(Level.FINE, "dropping stored revisions up to {0} of {1}", new Object[]{String.valueOf(l), this.url});
             try {
-                Preferences.userNodeForPackage(SVNHistory.class).flush();
-            } catch (BackingStoreException ex) {
+                store.remove(this.url);
+            } catch (IOException ex) {
                 LOGGER.log(Level.SEVERE, null, ex);
             }
+            l = -1;
         }
-        LOGGER.log(Level.FINE,"fetching until revision {0}",new Object[]{revision});
+        replayStore();
+        if(l == revision){
+            LOGGER.log(Level.FINE,"skip fetching {0} (latest revision is {1}) for {2}",new Object[]{String.valueOf(l),revision,this.url});
+            return false;
+        }
+        latestRevision = revision;
+        cachedRevision = l;
+        completedRevision = l;
+        LOGGER.log(Level.FINE, "proceed fetching revisions {0} to {1} for repository {2}", new Object[]{String.valueOf(cachedRevision + 1), String.valueOf(revision), this.url});
         return true;
     }
     /**
-     * processes a log entry. Adds it to the EventList
+     * @param startRevision the revision the caller asked to start with
+     * @return the revision after the stored ones, if there are any
+     */
+    protected long getFetchStartRevision(long startRevision) {
+        return cachedRevision >= 0 ? Math.max(startRevision, cachedRevision + 1) : startRevision;
+    }
+    /**
+     * passes the stored events on to the handler, if there is one.
+     */
+    private void replayStore(){
+        if(handler == null){
+            return;
+        }
+        try {
+            store.replay(this.url, handler);
+        } catch (IOException ex) {
+            LOGGER.log(Level.SEVERE, null, ex);
+        }
+    }
+    /**
+     * processes a log entry. Adds it to the EventList, right away or once
+     * its weights are computed.
      * @param logEntry the entry to process
      */
     public void handleLogEntry(SVNLogEntry logEntry) {
-        Set<?> keySet = logEntry.getChangedPaths().keySet();
-        Iterator<?> i = keySet.iterator();
-        while(i.hasNext()){
-            String key = (String)i.next();
-            SVNLogEntryPath entryPath = (SVNLogEntryPath) logEntry.getChangedPaths().get(key);
-            list.addEvent(new Event(entryPath.getPath(),logEntry.getDate().getTime(),logEntry.getAuthor()));    
-            if(LOGGER.isLoggable(Level.FINE)){
-                LOGGER.log(Level.FINE, "fetched entry {0}\n date {1}\n rev. {2}\n--", new Object[]{entryPath.getPath(),logEntry.getDate(), logEntry.getRevision()});
+        if(weightThreads > 0){
+            if(counter == null){
+                counter = new LineChangeCounter(this, this.url, weightCache, weightThreads);
             }
+            pending.add(new PendingEntry(logEntry, counter.submit(logEntry)));
+            // keep every thread busy, but don't run far ahead of the log
+            while(pending.size() > weightThreads * 16){
+                addPendingEntry();
+            }
+        }else{
+            addEntry(logEntry, null);
         }
         /*
          * displaying all paths that were changed in that revision; changed
@@ -155,22 +239,121 @@ public class SVNHistory extends AbstractSVNHistoryVisitor {
         }
     }
     /**
-     * serializes the log entries
+     * adds the changes of a log entry to the EventList.
+     * @param logEntry the entry
+     * @param weights the weight of every changed path, null if every change
+     *          weighs 1
      */
-    public void finishLogEntries() {
+    private void addEntry(SVNLogEntry logEntry, Map<String, Integer> weights){
+        Set<?> keySet = logEntry.getChangedPaths().keySet();
+        Iterator<?> i = keySet.iterator();
+        while(i.hasNext()){
+            String key = (String)i.next();
+            SVNLogEntryPath entryPath = (SVNLogEntryPath) logEntry.getChangedPaths().get(key);
+            Integer w = weights != null ? weights.get(entryPath.getPath()) : null;
+            int weight = w != null ? w.intValue() : 1;
+            list.add(logEntry.getDate().getTime(), logEntry.getAuthor(), entryPath.getPath(), weight);
+            if(handler != null){
+                // the cache file has an empty author for anonymous commits
+                String author = logEntry.getAuthor() != null ? logEntry.getAuthor() : "";
+                handler.handleEvent(logEntry.getDate().getTime(), author, entryPath.getPath(), weight);
+            }
+            if(LOGGER.isLoggable(Level.FINE)){
+                LOGGER.log(Level.FINE, "fetched entry {0}\n date {1}\n rev. {2}\n--", new Object[]{entryPath.getPath(),logEntry.getDate(), logEntry.getRevision()});
+            }
+        }
+        completedRevision = logEntry.getRevision();
+        if(list.size() >= checkpointEvents || System.currentTimeMillis() - lastCheckpoint >= checkpointMillis){
+            checkpoint(completedRevision);
+        }
+    }
+    /**
+     * stores the events added since the last checkpoint as a new segment,
+     * in the background. If that fails, they are kept and stored with the
+     * next checkpoint.
+     * @param revision the last revision of the segment, all revisions
+     *          before it are complete
+     */
+    private void checkpoint(long revision){
+        lastCheckpoint = System.currentTimeMillis();
+        if(!awaitWrite()){
+            // the events of the failed segment go with the ones added since
+            for(int i = 0; i < list.size(); i++){
+                writing.add(list.getDate(i), list.getAuthor(i), list.getFilename(i), list.getWeight(i));
+            }
+            list = writing;
+        }
+        writing = null;
+        if(revision <= cachedRevision){
+            return;
+        }
+        LOGGER.log(Level.FINE, "storing revisions {0} to {1} of {2}", new Object[]{String.valueOf(cachedRevision + 1), String.valueOf(revision), this.url});
+        write = store.submitSegment(this.url, cachedRevision + 1, revision, null, list);
+        writing = list;
+        writingRevision = revision;
+        // a fresh list, so the strings of the stored events don't pile up
+        list = new EventList();
+    }
+    /**
+     * waits until the segment being stored is written. Only then the
+     * revisions after it are the ones to store next.
+     * @return false if it could not be stored
+     */
+    private boolean awaitWrite(){
+        if(write == null){
+            return true;
+        }
+        boolean stored = false;
         try {
-            CodeSwarmEventsSerializer serializer = 
-                    new CodeSwarmEventsSerializer(list);
-            serializer.serialize(getFilePath());
-        } catch (ParserConfigurationException ex) {
-            LOGGER.log(Level.SEVERE, null, ex);
-        } catch (TransformerConfigurationException ex) {
-            LOGGER.log(Level.SEVERE, null, ex);
-        } catch (IOException ex) {
-            LOGGER.log(Level.SEVERE, null, ex);
-        } catch (TransformerException ex) {
-            LOGGER.log(Level.SEVERE, null, ex);
+            write.get();
+            cachedRevision = writingRevision;
+            stored = true;
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            LOGGER.log(Level.SEVERE, "interrupted while storing revisions up to {0} of {1}", new Object[]{String.valueOf(writingRevision), this.url});
+        } catch (ExecutionException ex) {
+            LOGGER.log(Level.SEVERE, null, ex.getCause());
         }
+        write = null;
+        return stored;
+    }
+    /**
+     * waits for the weights of the oldest pending entry and adds it.
+     */
+    private void addPendingEntry(){
+        PendingEntry entry = pending.removeFirst();
+        Map<String, Integer> weights = null;
+        try {
+            weights = entry.weights.get();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException ex) {
+            LOGGER.log(Level.WARNING, "cannot weigh the changes of revision {0}: {1}",
+                    new Object[]{String.valueOf(entry.logEntry.getRevision()), ex.getCause().getMessage()});
+        }
+        addEntry(entry.logEntry, weights);
+    }
+    /**
+     * stops computing weights and drops the pending entries.
+     */
+    private void stopCounting(){
+        if(counter != null){
+            counter.shutdown();
+            counter = null;
+        }
+        pending.clear();
+    }
+    /**
+     * stores the remaining fetched revisions as a new segment after the
+     * stored ones.
+     */
+    public void finishLogEntries() {
+        while(!pending.isEmpty()){
+            addPendingEntry();
+        }
+        stopCounting();
+        checkpoint(latestRevision);
+        awaitWrite();
     }
     /**
      * Logs an error statement and stops further processing
@@ -186,23 +369,42 @@ public class SVNHistory extends AbstractSVNHistoryVisitor {
         return false;
     }
     /**
-     * Logs an error statement and stops further processing
-     * Otherwise returns the latest cached revision.
+     * Logs an error statement, passes the stored events on to the handler
+     * and stops further processing.
      * @param e the orginal exception
      * @return null.
      */
     public Long handleFetchingLatestRepositoryRevisionException(SVNException svne) {
         LOGGER.log(Level.FINE,"error while fetching the latest repository revision: {0}.\nFalling back to cached version (if present).",new Object[]{ svne.getMessage()});
+        replayStore();
         return null;
     }
     /**
-     * Logs an error statement and stops further processing
+     * Logs an error statement, stores the revisions fetched completely and
+     * stops further processing
      * @param e the orginal exception
      * @param url the repository url
      * @return false
      */
     public boolean handleCollectingLogInformationException(SVNException svne, String url) {
+        stopCounting();
+        // keep what was fetched, the next run goes on from there
+        checkpoint(completedRevision);
+        awaitWrite();
         LOGGER.log(Level.SEVERE,"error while collecting log information for {0} : {1}", new Object[]{url,svne.getMessage()});
         return false;
     }
+
+    /**
+     * a log entry waiting for its weights.
+     */
+    private static class PendingEntry {
+        final SVNLogEntry logEntry;
+        final Future<Map<String, Integer>> weights;
+
+        PendingEntry(SVNLogEntry logEntry, Future<Map<String, Integer>> weights){
+            this.logEntry = logEntry;
+            this.weights = weights;
+        }
+    }
 }
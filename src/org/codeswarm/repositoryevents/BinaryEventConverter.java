@@ -0,0 +1,134 @@
+/* This file is part of code_swarm.
+
+code_swarm is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+code_swarm is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with code_swarm.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.codeswarm.repositoryevents;
+
+import java.io.File;
+import java.io.IOException;
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.parsers.SAXParserFactory;
+import org.xml.sax.Attributes;
+import org.xml.sax.SAXException;
+import org.xml.sax.XMLReader;
+import org.xml.sax.helpers.DefaultHandler;
+
+/**
+ * Converts a file_events xml-file (as written by
+ * {@link CodeSwarmEventsSerializer}) or a version control log (see
+ * {@link LogEventParser}) to the binary event format.<br />
+ * Usage: <code>BinaryEventConverter [-format svn|cvs|hg] input output.bin</code>
+ */
+public class BinaryEventConverter {
+    /**
+     * converts an xml event file to a binary event file.
+     * @param xmlFile the path of the xml file to read
+     * @param binaryFile the path of the binary file to write
+     * @return the number of events converted
+     * @throws org.xml.sax.SAXException when the xml file cannot be parsed
+     * @throws java.io.IOException when one of the files cannot be accessed
+     */
+    public static long convert(String xmlFile, String binaryFile) throws SAXException, IOException{
+        XMLReader reader;
+        try {
+            reader = SAXParserFactory.newInstance().newSAXParser().getXMLReader();
+        } catch (ParserConfigurationException ex) {
+            throw new SAXException(ex);
+        }
+        final BinaryEventWriter writer = new BinaryEventWriter(new File(binaryFile));
+        reader.setContentHandler(new DefaultHandler(){
+            public void startElement(String uri, String localName, String name,
+                    Attributes atts) throws SAXException {
+                if (name.equals("event")){
+                    String weight = atts.getValue("weight");
+                    try {
+                        writer.write(Long.parseLong(atts.getValue("date")),
+                                atts.getValue("author"),
+                                atts.getValue("filename"),
+                                weight != null ? Integer.parseInt(weight) : 1);
+                    } catch (IOException ex) {
+                        throw new SAXException(ex);
+                    }
+                }
+            }
+        });
+        try {
+            reader.parse(new File(xmlFile).toURI().toString());
+        } finally {
+            writer.close();
+        }
+        return writer.getEventCount();
+    }
+
+    /**
+     * converts a version control log to a binary event file in a single
+     * pass. The events are sorted by date on disk on the way, so the binary
+     * file is sorted, however the log is ordered.
+     * @param parser the parser for the log format
+     * @param logFile the path of the log to read
+     * @param binaryFile the path of the binary file to write
+     * @param runSize the number of events sorted in memory at once
+     * @return the number of events converted
+     * @throws java.io.IOException when one of the files cannot be accessed
+     */
+    public static long convertLog(LogEventParser parser, String logFile, String binaryFile, int runSize) throws IOException{
+        ExternalEventSorter sorter = new ExternalEventSorter(runSize, null);
+        parser.parse(logFile, sorter);
+        final BinaryEventWriter writer = new BinaryEventWriter(new File(binaryFile));
+        try {
+            sorter.merge(new EventHandler(){
+                public void handleEvent(long date, String author, String filename, int weight){
+                    try {
+                        writer.write(date, author, filename, weight);
+                    } catch (IOException ex) {
+                        throw new IllegalStateException(ex);
+                    }
+                }
+            });
+        } catch (IllegalStateException ex) {
+            if(ex.getCause() instanceof IOException){
+                throw (IOException)ex.getCause();
+            }
+            throw ex;
+        } finally {
+            writer.close();
+        }
+        return writer.getEventCount();
+    }
+
+    /**
+     * @param args an optional log format, the input file and the binary
+     *          output file
+     */
+    public static void main(String[] args){
+        String format = null;
+        if(args.length == 4 && args[0].equals("-format")){
+            format = args[1];
+            args = new String[]{args[2], args[3]};
+        }
+        if(args.length != 2 || format != null && !LogEventParser.isLogFormat(format)){
+            System.err.println("Usage: BinaryEventConverter [-format svn|cvs|hg] <input> <output.bin>");
+            System.exit(1);
+        }
+        try {
+            long start = System.currentTimeMillis();
+            long count = format == null ? convert(args[0], args[1])
+                    : convertLog(LogEventParser.create(format), args[0], args[1], 1000000);
+            System.out.println("Converted " + count + " events in " + (System.currentTimeMillis() - start) + " ms");
+        } catch (Exception e) {
+            System.err.println("Failed due to exception: " + e.getMessage());
+            System.exit(1);
+        }
+    }
+}
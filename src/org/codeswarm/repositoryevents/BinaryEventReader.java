@@ -0,0 +1,210 @@
+/* This file is part of code_swarm.
+
+code_swarm is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+code_swarm is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with code_swarm.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.codeswarm.repositoryevents;
+
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Reads a file written by {@link BinaryEventWriter}.<br />
+ * The event records are memory-mapped, so reading them costs no parsing and
+ * no copying; the string tables are decoded once when the file is opened.
+ * Records are accessed by index, from 0 to {@link #getEventCount()} - 1.
+ */
+public class BinaryEventReader {
+    /** Records per mapped segment; a single mapping is limited to 2GB */
+    private static final int RECORDS_PER_SEGMENT = Integer.MAX_VALUE / BinaryEventWriter.RECORD_SIZE;
+
+    private final RandomAccessFile file;
+    private final long eventCount;
+    private final String[] authors;
+    private final String[] paths;
+    private final MappedByteBuffer[] segments;
+
+    /**
+     * opens and maps a binary event file.
+     * @param f the file to read
+     * @throws java.io.IOException when the file cannot be read or is not a
+     *          binary event file
+     */
+    public BinaryEventReader(File f) throws IOException{
+        file = new RandomAccessFile(f, "r");
+        FileChannel channel = file.getChannel();
+        MappedByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, BinaryEventWriter.HEADER_SIZE);
+        if(header.getInt() != BinaryEventWriter.MAGIC){
+            file.close();
+            throw new IOException(f + " is not a binary event file");
+        }
+        int version = header.getInt();
+        if(version != BinaryEventWriter.VERSION){
+            file.close();
+            throw new IOException("unsupported binary event file version " + version + " in " + f);
+        }
+        eventCount = header.getLong();
+        long authorTableOffset = header.getLong();
+        long pathTableOffset = header.getLong();
+
+        MappedByteBuffer tables = channel.map(FileChannel.MapMode.READ_ONLY, authorTableOffset, channel.size() - authorTableOffset);
+        authors = readTable(tables);
+        tables.position((int)(pathTableOffset - authorTableOffset));
+        paths = readTable(tables);
+
+        int segmentCount = (int)((eventCount + RECORDS_PER_SEGMENT - 1) / RECORDS_PER_SEGMENT);
+        segments = new MappedByteBuffer[segmentCount];
+        for(int i = 0; i < segmentCount; i++){
+            long first = (long)i * RECORDS_PER_SEGMENT;
+            long records = Math.min(RECORDS_PER_SEGMENT, eventCount - first);
+            segments[i] = channel.map(FileChannel.MapMode.READ_ONLY,
+                    BinaryEventWriter.HEADER_SIZE + first * BinaryEventWriter.RECORD_SIZE,
+                    records * BinaryEventWriter.RECORD_SIZE);
+        }
+    }
+    /**
+     * checks the magic number of a file without opening it as a whole.
+     * @param f the file to check
+     * @return true if the file looks like a binary event file
+     */
+    public static boolean isBinaryEventFile(File f){
+        if(!f.isFile() || f.length() < BinaryEventWriter.HEADER_SIZE){
+            return false;
+        }
+        try {
+            DataInputStream in = new DataInputStream(new FileInputStream(f));
+            try {
+                return in.readInt() == BinaryEventWriter.MAGIC;
+            } finally {
+                in.close();
+            }
+        } catch (IOException ex) {
+            return false;
+        }
+    }
+    /**
+     * @return the number of event records in the file
+     */
+    public long getEventCount(){
+        return eventCount;
+    }
+    /**
+     * @param index the record index
+     * @return the date of the event
+     */
+    public long getDate(long index){
+        return segment(index).getLong(offset(index));
+    }
+    /**
+     * @param index the record index
+     * @return the author id of the event
+     */
+    public int getAuthorId(long index){
+        return segment(index).getInt(offset(index) + 8);
+    }
+    /**
+     * @param index the record index
+     * @return the path id of the event
+     */
+    public int getPathId(long index){
+        return segment(index).getInt(offset(index) + 12);
+    }
+    /**
+     * @param index the record index
+     * @return the weight of the event
+     */
+    public int getWeight(long index){
+        return segment(index).getInt(offset(index) + 16);
+    }
+    /**
+     * binary searches the records for a date. Only meaningful if the records
+     * are sorted by date.
+     * @param date the date to look for
+     * @return the index of the first record at or after date, or
+     *          {@link #getEventCount()} if there is none
+     */
+    public long findFirst(long date){
+        long lo = 0;
+        long hi = eventCount;
+        while(lo < hi){
+            long mid = (lo + hi) >>> 1;
+            if(getDate(mid) < date){
+                lo = mid + 1;
+            }else{
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+    /**
+     * @param authorId an author id
+     * @return the author's name
+     */
+    public String getAuthor(int authorId){
+        return authors[authorId];
+    }
+    /**
+     * @param pathId a path id
+     * @return the path
+     */
+    public String getPath(int pathId){
+        return paths[pathId];
+    }
+    /**
+     * @return the number of distinct authors
+     */
+    public int getAuthorCount(){
+        return authors.length;
+    }
+    /**
+     * @return the number of distinct paths
+     */
+    public int getPathCount(){
+        return paths.length;
+    }
+    /**
+     * releases the file. The mapped records stay valid until they are
+     * garbage-collected.
+     * @throws java.io.IOException
+     */
+    public void close() throws IOException{
+        file.close();
+    }
+
+    private MappedByteBuffer segment(long index){
+        return segments[(int)(index / RECORDS_PER_SEGMENT)];
+    }
+
+    private static int offset(long index){
+        return (int)(index % RECORDS_PER_SEGMENT) * BinaryEventWriter.RECORD_SIZE;
+    }
+
+    private static String[] readTable(MappedByteBuffer buffer) throws IOException{
+        String[] table = new String[buffer.getInt()];
+        byte[] bytes = new byte[256];
+        for(int i = 0; i < table.length; i++){
+            int length = buffer.getInt();
+            if(length > bytes.length){
+                bytes = new byte[Math.max(length, bytes.length * 2)];
+            }
+            buffer.get(bytes, 0, length);
+            table[i] = new String(bytes, 0, length, "UTF-8");
+        }
+        return table;
+    }
+}
@@ -0,0 +1,142 @@
+/* This file is part of code_swarm.
+
+code_swarm is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+code_swarm is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with code_swarm.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.codeswarm.repositoryevents;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.channels.Channels;
+
+/**
+ * Writes events to a file in the binary event format read by
+ * {@link BinaryEventReader}.<br />
+ * The file starts with a fixed header, followed by one fixed-size record per
+ * event and the author and path string tables:
+ * <pre>
+ * header:  int magic, int version, long eventCount,
+ *          long authorTableOffset, long pathTableOffset
+ * record:  long date, int authorId, int pathId, int weight
+ * table:   int count, then per string: int length, length bytes of UTF-8
+ * </pre>
+ * Records are written in the order they are added.
+ */
+public class BinaryEventWriter {
+    /** First four bytes of every binary event file ("CSEV") */
+    public static final int MAGIC = 0x43534556;
+    /** Current format version */
+    public static final int VERSION = 1;
+    /** Size of the file header in bytes */
+    public static final int HEADER_SIZE = 32;
+    /** Size of a single event record in bytes */
+    public static final int RECORD_SIZE = 20;
+
+    private final RandomAccessFile file;
+    private final DataOutputStream out;
+    private final StringDictionary authors;
+    private final StringDictionary paths;
+    private long eventCount;
+
+    /**
+     * creates the file (truncating an existing one) and writes a placeholder
+     * header.
+     * @param f the file to write to
+     * @throws java.io.IOException when the file cannot be written
+     */
+    public BinaryEventWriter(File f) throws IOException{
+        this(f, new StringDictionary(), new StringDictionary());
+    }
+    /**
+     * creates the file (truncating an existing one) and writes a placeholder
+     * header. The given dictionaries are extended as new strings are written,
+     * so ids already handed out by them are kept.
+     * @param f the file to write to
+     * @param authors the author dictionary
+     * @param paths the path dictionary
+     * @throws java.io.IOException when the file cannot be written
+     */
+    public BinaryEventWriter(File f, StringDictionary authors, StringDictionary paths) throws IOException{
+        this.authors = authors;
+        this.paths = paths;
+        file = new RandomAccessFile(f, "rw");
+        file.setLength(0);
+        out = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(file.getChannel()), 1 << 16));
+        out.write(new byte[HEADER_SIZE]);
+    }
+    /**
+     * appends an event.
+     * @param date the date of modification
+     * @param author the user that changed the file
+     * @param path the path of the file that was changed
+     * @param weight the weight of the change
+     * @throws java.io.IOException when the file cannot be written
+     */
+    public void write(long date, String author, String path, int weight) throws IOException{
+        write(date, authors.getId(author), paths.getId(path), weight);
+    }
+    /**
+     * appends an event whose strings are already in the writer's dictionaries.
+     * @param date the date of modification
+     * @param authorId the id of the author
+     * @param pathId the id of the path
+     * @param weight the weight of the change
+     * @throws java.io.IOException when the file cannot be written
+     */
+    public void write(long date, int authorId, int pathId, int weight) throws IOException{
+        out.writeLong(date);
+        out.writeInt(authorId);
+        out.writeInt(pathId);
+        out.writeInt(weight);
+        eventCount++;
+    }
+    /**
+     * @return the number of events written so far
+     */
+    public long getEventCount(){
+        return eventCount;
+    }
+    /**
+     * writes the string tables and the final header and closes the file.
+     * @throws java.io.IOException when the file cannot be written
+     */
+    public void close() throws IOException{
+        long authorTableOffset = HEADER_SIZE + eventCount * RECORD_SIZE;
+        long pathTableOffset = authorTableOffset + writeTable(authors);
+        writeTable(paths);
+        out.flush();
+        file.seek(0);
+        file.writeInt(MAGIC);
+        file.writeInt(VERSION);
+        file.writeLong(eventCount);
+        file.writeLong(authorTableOffset);
+        file.writeLong(pathTableOffset);
+        file.close();
+    }
+
+    private long writeTable(StringDictionary dictionary) throws IOException{
+        int count = dictionary.size();
+        long length = 4;
+        out.writeInt(count);
+        for(int i = 0; i < count; i++){
+            byte[] bytes = dictionary.getString(i).getBytes("UTF-8");
+            out.writeInt(bytes.length);
+            out.write(bytes);
+            length += 4 + bytes.length;
+        }
+        return length;
+    }
+}
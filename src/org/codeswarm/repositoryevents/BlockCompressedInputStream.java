@@ -0,0 +1,277 @@
+/* This file is part of code_swarm.
+
+code_swarm is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+code_swarm is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with code_swarm.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.codeswarm.repositoryevents;
+
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.LinkedList;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * Reads a file written by {@link BlockCompressedOutputStream}.<br />
+ * The blocks ahead of the reader are inflated on a pool of worker threads,
+ * a few blocks per thread at a time, and handed out in order.
+ * {@link #skip(long)} uses the block index, so skipped blocks are never
+ * read or inflated.
+ */
+public class BlockCompressedInputStream extends InputStream {
+    private final RandomAccessFile file;
+    private final FileChannel channel;
+    private final long[] offsets;
+    private final int[] compressedLengths;
+    private final long[] starts;
+    private final long length;
+    private final int window;
+    private final ExecutorService workers;
+    private final LinkedList<Future<byte[]>> inFlight = new LinkedList<Future<byte[]>>();
+
+    private int nextSubmit;
+    private byte[] current;
+    private int currentPos;
+    private long position;
+    private int skipInBlock;
+
+    /**
+     * opens a block-compressed file.
+     * @param f the file
+     * @param threads the number of threads inflating blocks
+     * @throws java.io.IOException when the file cannot be read or is not
+     *          block-compressed
+     */
+    public BlockCompressedInputStream(File f, int threads) throws IOException{
+        file = new RandomAccessFile(f, "r");
+        channel = file.getChannel();
+        try {
+            long size = file.length();
+            if(size < BlockCompressedOutputStream.HEADER_SIZE + BlockCompressedOutputStream.TRAILER_SIZE
+                    || file.readInt() != BlockCompressedOutputStream.MAGIC){
+                throw new IOException(f + " is not a block-compressed file");
+            }
+            if(file.readInt() != BlockCompressedOutputStream.VERSION){
+                throw new IOException(f + " has an unsupported version");
+            }
+            file.seek(size - BlockCompressedOutputStream.TRAILER_SIZE);
+            long indexOffset = file.readLong();
+            if(file.readInt() != BlockCompressedOutputStream.MAGIC){
+                throw new IOException(f + " is truncated");
+            }
+            file.seek(indexOffset);
+            int count = file.readInt();
+            offsets = new long[count];
+            compressedLengths = new int[count];
+            starts = new long[count + 1];
+            for(int i = 0; i < count; i++){
+                offsets[i] = file.readLong();
+                compressedLengths[i] = file.readInt();
+                starts[i + 1] = starts[i] + file.readInt();
+            }
+            length = starts[count];
+        } catch (IOException ex) {
+            file.close();
+            throw ex;
+        }
+        int n = Math.max(threads, 1);
+        window = n * 2;
+        workers = Executors.newFixedThreadPool(n, new ThreadFactory(){
+            public Thread newThread(Runnable r){
+                Thread t = new Thread(r, "code_swarm inflater");
+                t.setDaemon(true);
+                return t;
+            }
+        });
+    }
+    /**
+     * @param f a file
+     * @return true if f starts like a block-compressed file
+     */
+    public static boolean isBlockCompressedFile(File f){
+        if(!f.isFile() || f.length() < BlockCompressedOutputStream.HEADER_SIZE){
+            return false;
+        }
+        try {
+            DataInputStream in = new DataInputStream(new FileInputStream(f));
+            try {
+                return in.readInt() == BlockCompressedOutputStream.MAGIC;
+            } finally {
+                in.close();
+            }
+        } catch (IOException ex) {
+            return false;
+        }
+    }
+    /**
+     * opens a file for reading, inflating it on every processor if it is
+     * block-compressed.
+     * @param f the file
+     * @return a stream of the (uncompressed) contents
+     * @throws java.io.IOException when the file cannot be read
+     */
+    public static InputStream open(File f) throws IOException{
+        if(isBlockCompressedFile(f)){
+            return new BlockCompressedInputStream(f, Runtime.getRuntime().availableProcessors());
+        }
+        return new FileInputStream(f);
+    }
+    /**
+     * @return the uncompressed length of the data
+     */
+    public long getLength(){
+        return length;
+    }
+
+    public int read() throws IOException{
+        if(!fill()){
+            return -1;
+        }
+        position++;
+        return current[currentPos++] & 0xff;
+    }
+
+    public int read(byte[] b, int off, int len) throws IOException{
+        if(len == 0){
+            return 0;
+        }
+        if(!fill()){
+            return -1;
+        }
+        int n = Math.min(len, current.length - currentPos);
+        System.arraycopy(current, currentPos, b, off, n);
+        currentPos += n;
+        position += n;
+        return n;
+    }
+
+    public long skip(long n) throws IOException{
+        if(n <= 0){
+            return 0;
+        }
+        long target = Math.min(position + n, length);
+        long skipped = target - position;
+        if(current != null && currentPos + skipped <= current.length){
+            currentPos += (int)skipped;
+        }else{
+            // drop the blocks in flight and restart at the target's block
+            for(Future<byte[]> f : inFlight){
+                f.cancel(false);
+            }
+            inFlight.clear();
+            current = null;
+            int b = blockOf(target);
+            nextSubmit = b;
+            skipInBlock = (int)(target - starts[b]);
+        }
+        position = target;
+        return skipped;
+    }
+
+    public int available(){
+        return current == null ? 0 : current.length - currentPos;
+    }
+
+    public void close() throws IOException{
+        workers.shutdownNow();
+        file.close();
+    }
+
+    /**
+     * makes sure there are unread bytes in the current block.
+     * @return false at the end of the data
+     */
+    private boolean fill() throws IOException{
+        while(current == null || currentPos == current.length){
+            while(inFlight.size() < window && nextSubmit < offsets.length){
+                final int b = nextSubmit++;
+                inFlight.add(workers.submit(new Callable<byte[]>(){
+                    public byte[] call() throws Exception{
+                        return inflate(b);
+                    }
+                }));
+            }
+            if(inFlight.isEmpty()){
+                return false;
+            }
+            try {
+                current = inFlight.removeFirst().get();
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                throw new IOException("interrupted while inflating");
+            } catch (ExecutionException ex) {
+                IOException io = new IOException("could not inflate block: " + ex.getCause());
+                io.initCause(ex.getCause());
+                throw io;
+            }
+            currentPos = skipInBlock;
+            skipInBlock = 0;
+        }
+        return true;
+    }
+
+    private byte[] inflate(int b) throws IOException, DataFormatException{
+        byte[] input = new byte[compressedLengths[b]];
+        ByteBuffer buffer = ByteBuffer.wrap(input);
+        while(buffer.hasRemaining()){
+            if(channel.read(buffer, offsets[b] + buffer.position()) < 0){
+                throw new IOException("unexpected end of file in block " + b);
+            }
+        }
+        byte[] output = new byte[(int)(starts[b + 1] - starts[b])];
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(input);
+            int n = 0;
+            while(n < output.length){
+                int k = inflater.inflate(output, n, output.length - n);
+                if(k == 0 && (inflater.finished() || inflater.needsInput())){
+                    throw new DataFormatException("block " + b + " is too short");
+                }
+                n += k;
+            }
+        } finally {
+            inflater.end();
+        }
+        return output;
+    }
+
+    /**
+     * @return the block holding the uncompressed offset
+     */
+    private int blockOf(long offset){
+        int lo = 0;
+        int hi = offsets.length - 1;
+        while(lo < hi){
+            int mid = (lo + hi + 1) >>> 1;
+            if(starts[mid] <= offset){
+                lo = mid;
+            }else{
+                hi = mid - 1;
+            }
+        }
+        return lo;
+    }
+}
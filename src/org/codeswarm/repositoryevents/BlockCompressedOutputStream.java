@@ -0,0 +1,165 @@
+/* This file is part of code_swarm.
+
+code_swarm is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+code_swarm is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with code_swarm.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.codeswarm.repositoryevents;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.zip.Deflater;
+
+/**
+ * Writes a block-compressed file: the data is cut into blocks that are
+ * deflated independently, followed by an index of the blocks, so that
+ * {@link BlockCompressedInputStream} can inflate them in parallel and seek
+ * without inflating what it skips.<br />
+ * Layout (big-endian):
+ * <pre>
+ * header:  int magic "CSZB", int version, int block size
+ * blocks:  zlib streams, one per block
+ * index:   int block count, then per block
+ *          long file offset, int compressed length, int length
+ * trailer: long index offset, int magic
+ * </pre>
+ */
+public class BlockCompressedOutputStream extends OutputStream {
+    /** "CSZB" */
+    public static final int MAGIC = 0x43535a42;
+    public static final int VERSION = 1;
+    public static final int HEADER_SIZE = 12;
+    public static final int TRAILER_SIZE = 12;
+    /** Default number of uncompressed bytes per block */
+    public static final int DEFAULT_BLOCK_SIZE = 1 << 20;
+
+    private final DataOutputStream out;
+    private final Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION);
+    private final byte[] block;
+    private byte[] compressed;
+    private int length;
+    private long position;
+    private long[] offsets = new long[64];
+    private int[] compressedLengths = new int[64];
+    private int[] lengths = new int[64];
+    private int blockCount;
+    private boolean closed = false;
+
+    /**
+     * creates a block-compressed file.
+     * @param f the file to write
+     * @throws java.io.IOException when the file cannot be created
+     */
+    public BlockCompressedOutputStream(File f) throws IOException{
+        this(f, DEFAULT_BLOCK_SIZE);
+    }
+    /**
+     * creates a block-compressed file.
+     * @param f the file to write
+     * @param blockSize the number of uncompressed bytes per block
+     * @throws java.io.IOException when the file cannot be created
+     */
+    public BlockCompressedOutputStream(File f, int blockSize) throws IOException{
+        out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(f), 1 << 16));
+        block = new byte[blockSize];
+        compressed = new byte[blockSize + blockSize / 8 + 64];
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        out.writeInt(blockSize);
+        position = HEADER_SIZE;
+    }
+
+    public void write(int b) throws IOException{
+        if(length == block.length){
+            writeBlock();
+        }
+        block[length++] = (byte)b;
+    }
+
+    public void write(byte[] b, int off, int len) throws IOException{
+        while(len > 0){
+            if(length == block.length){
+                writeBlock();
+            }
+            int n = Math.min(len, block.length - length);
+            System.arraycopy(b, off, block, length, n);
+            length += n;
+            off += n;
+            len -= n;
+        }
+    }
+
+    /**
+     * writes the last block and the block index and closes the file.
+     * @throws java.io.IOException
+     */
+    public void close() throws IOException{
+        if(closed){
+            return;
+        }
+        closed = true;
+        try {
+            if(length > 0){
+                writeBlock();
+            }
+            long indexOffset = position;
+            out.writeInt(blockCount);
+            for(int i = 0; i < blockCount; i++){
+                out.writeLong(offsets[i]);
+                out.writeInt(compressedLengths[i]);
+                out.writeInt(lengths[i]);
+            }
+            out.writeLong(indexOffset);
+            out.writeInt(MAGIC);
+        } finally {
+            deflater.end();
+            out.close();
+        }
+    }
+
+    private void writeBlock() throws IOException{
+        deflater.reset();
+        deflater.setInput(block, 0, length);
+        deflater.finish();
+        int n = 0;
+        while(!deflater.finished()){
+            if(n == compressed.length){
+                byte[] grown = new byte[compressed.length * 2];
+                System.arraycopy(compressed, 0, grown, 0, n);
+                compressed = grown;
+            }
+            n += deflater.deflate(compressed, n, compressed.length - n);
+        }
+        out.write(compressed, 0, n);
+        if(blockCount == offsets.length){
+            long[] o = new long[blockCount * 2];
+            int[] c = new int[blockCount * 2];
+            int[] l = new int[blockCount * 2];
+            System.arraycopy(offsets, 0, o, 0, blockCount);
+            System.arraycopy(compressedLengths, 0, c, 0, blockCount);
+            System.arraycopy(lengths, 0, l, 0, blockCount);
+            offsets = o;
+            compressedLengths = c;
+            lengths = l;
+        }
+        offsets[blockCount] = position;
+        compressedLengths[blockCount] = n;
+        lengths[blockCount] = length;
+        blockCount++;
+        position += n;
+        length = 0;
+    }
+}
@@ -0,0 +1,75 @@
+/* This file is part of code_swarm.
+
+code_swarm is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+code_swarm is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with code_swarm.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.codeswarm.repositoryevents;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Compresses a file_events xml-file into the block-compressed format read
+ * by {@link BlockCompressedInputStream}. code_swarm loads such files like
+ * plain xml files.<br />
+ * Usage: <code>BlockCompressor input.xml output.xml.csz</code>
+ */
+public class BlockCompressor {
+    /**
+     * compresses a file.
+     * @param input the path of the file to read
+     * @param output the path of the block-compressed file to write
+     * @return the number of compressed bytes written
+     * @throws java.io.IOException when one of the files cannot be accessed
+     */
+    public static long compress(String input, String output) throws IOException{
+        InputStream in = new FileInputStream(input);
+        try {
+            BlockCompressedOutputStream out = new BlockCompressedOutputStream(new File(output));
+            try {
+                byte[] buffer = new byte[1 << 16];
+                int n;
+                while((n = in.read(buffer)) > 0){
+                    out.write(buffer, 0, n);
+                }
+            } finally {
+                out.close();
+            }
+        } finally {
+            in.close();
+        }
+        return new File(output).length();
+    }
+
+    /**
+     * @param args the input file and the block-compressed output file
+     */
+    public static void main(String[] args){
+        if(args.length != 2){
+            System.err.println("Usage: BlockCompressor <input.xml> <output.xml.csz>");
+            System.exit(1);
+        }
+        try {
+            long start = System.currentTimeMillis();
+            long size = compress(args[0], args[1]);
+            System.out.println("Compressed " + new File(args[0]).length() + " to " + size + " bytes in "
+                    + (System.currentTimeMillis() - start) + " ms");
+        } catch (Exception e) {
+            System.err.println("Failed due to exception: " + e.getMessage());
+            e.printStackTrace();
+            System.exit(1);
+        }
+    }
+}
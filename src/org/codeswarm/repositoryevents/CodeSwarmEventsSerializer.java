@@ -15,19 +15,11 @@ along with code_swarm.  If not, see <http://www.gnu.org/licenses/>.
  */
 package org.codeswarm.repositoryevents;
 
-import java.io.File;
+import java.io.BufferedWriter;
 import java.io.FileOutputStream;
 import java.io.IOException;
-import javax.xml.parsers.DocumentBuilderFactory;
-import javax.xml.parsers.ParserConfigurationException;
-import javax.xml.transform.Transformer;
-import javax.xml.transform.TransformerConfigurationException;
-import javax.xml.transform.TransformerException;
-import javax.xml.transform.TransformerFactory;
-import javax.xml.transform.dom.DOMSource;
-import javax.xml.transform.stream.StreamResult;
-import org.w3c.dom.Document;
-import org.w3c.dom.Element;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
 
 /**
  * Takes a list and renders it to an xml-file
@@ -43,38 +35,71 @@ public class CodeSwarmEventsSerializer {
         this.list = list;
     }
     /**
-     * actually serializes the list to the file denoted by pathToFile
+     * actually serializes the list to the file denoted by pathToFile.<br />
+     * The events are written straight from the list through a buffered
+     * writer, so no document is built in memory.
      * @param pathToFile the path to the xml file to serialize to. 
      *          It gets created if it doesn't exist.
-     * @throws javax.xml.parsers.ParserConfigurationException
-     *          When the serialization failed
-     * @throws javax.xml.transform.TransformerConfigurationException
-     *          When the serialization failed
      * @throws java.io.IOException
      *          When the serialization failed
-     * @throws javax.xml.transform.TransformerException
-     *          When the serialization failed
      */
-    public void serialize(String pathToFile) throws ParserConfigurationException, TransformerConfigurationException, IOException, TransformerException{
-        Document d = DocumentBuilderFactory.newInstance().newDocumentBuilder().newDocument();
-        Element events = d.createElement("file_events");
-        for(Event e : list.getEvents()){
-            Element event = d.createElement("event");
-            event.setAttribute("filename", e.getFilename());
-            event.setAttribute("date", String.valueOf(e.getDate()));
-            event.setAttribute("author", e.getAuthor());
-            events.appendChild(event);
+    public void serialize(String pathToFile) throws IOException{
+        Writer out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(pathToFile), "UTF-8"), 1 << 16);
+        try {
+            out.write("<?xml version=\"1.0\" encoding=\"UTF-8\" standalone=\"no\"?>");
+            if(list.isEmpty()){
+                out.write("<file_events/>");
+            }else{
+                out.write("<file_events>");
+                writeEvents(out);
+                out.write("</file_events>");
+            }
+        } finally {
+            out.close();
+        }
+    }
+
+    /**
+     * writes one event element per event in the list.
+     */
+    private void writeEvents(Writer out) throws IOException{
+        StringBuilder sb = new StringBuilder(256);
+        int size = list.size();
+        for(int i = 0; i < size; i++){
+            sb.setLength(0);
+            sb.append("<event author=\"");
+            escape(list.getAuthor(i), sb);
+            sb.append("\" date=\"").append(list.getDate(i)).append("\" filename=\"");
+            escape(list.getFilename(i), sb);
+            sb.append('"');
+            int weight = list.getWeight(i);
+            if(weight != 1){
+                sb.append(" weight=\"").append(weight).append('"');
+            }
+            sb.append("/>");
+            out.write(sb.toString());
+        }
+    }
+
+    /**
+     * escapes a string for use in a double-quoted attribute value.
+     */
+    private static void escape(String s, StringBuilder sb){
+        if(s == null){
+            return;
         }
-        d.appendChild(events);
-        Transformer t = TransformerFactory.newInstance().newTransformer();
-        File f = new File(pathToFile);
-        if(!f.exists()){
-            f.createNewFile();
+        for(int i = 0; i < s.length(); i++){
+            char c = s.charAt(i);
+            switch(c){
+                case '&': sb.append("&amp;"); break;
+                case '<': sb.append("&lt;"); break;
+                case '>': sb.append("&gt;"); break;
+                case '"': sb.append("&quot;"); break;
+                case '\n': sb.append("&#10;"); break;
+                case '\r': sb.append("&#13;"); break;
+                case '\t': sb.append("&#9;"); break;
+                default: sb.append(c);
+            }
         }
-        FileOutputStream out = new FileOutputStream(f);
-        StreamResult result = new StreamResult(out);
-        t.transform(new DOMSource(d), result);
-        out.close();
     }
-    
 }
@@ -0,0 +1,88 @@
+/* This file is part of code_swarm.
+
+code_swarm is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+code_swarm is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with code_swarm.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.codeswarm.repositoryevents;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+
+/**
+ * Reads the output of <code>cvs log</code> (or <code>cvs rlog</code>):
+ * <pre>
+ * RCS file: /cvsroot/project/src/main.c,v
+ * ...
+ * ----------------------------
+ * revision 1.2
+ * date: 2008/06/19 10:23:25;  author: mike;  state: Exp;  lines: +1 -0
+ * the log message
+ * </pre>
+ * The filename is the RCS file without ",v" and without the Attic directory
+ * deleted files are moved to. The log lists file by file, so the events are
+ * far from date order.
+ */
+public class CvsLogParser extends LogEventParser {
+    static final String SEPARATOR = "----------------------------";
+
+    protected void parse(BufferedReader in, EventHandler handler) throws IOException{
+        String filename = null;
+        String line = in.readLine();
+        while(line != null){
+            if(line.startsWith("RCS file: ")){
+                filename = rcsPath(line.substring(10).trim());
+            }else if(line.equals(SEPARATOR) && filename != null){
+                line = in.readLine();
+                if(line == null || !line.startsWith("revision ")){
+                    continue;
+                }
+                line = in.readLine();
+                if(line == null){
+                    break;
+                }
+                if(line.startsWith("date: ")){
+                    int a = line.indexOf("author: ");
+                    int b = a < 0 ? -1 : line.indexOf(';', a);
+                    long date = 0;
+                    boolean valid = b >= 0;
+                    if(valid){
+                        try {
+                            date = parseDate(line, 6);
+                        } catch (NumberFormatException ex) {
+                            valid = false;
+                        }
+                    }
+                    if(!valid){
+                        skip(line);
+                    }else{
+                        event(handler, date, line.substring(a + 8, b), filename);
+                    }
+                }
+            }
+            line = in.readLine();
+        }
+    }
+
+    /**
+     * @param rcsFile the path of an RCS file
+     * @return the path of the versioned file
+     */
+    static String rcsPath(String rcsFile){
+        String path = rcsFile.endsWith(",v") ? rcsFile.substring(0, rcsFile.length() - 2) : rcsFile;
+        int slash = path.lastIndexOf('/');
+        if(slash >= 6 && path.regionMatches(slash - 6, "/Attic", 0, 6)){
+            path = path.substring(0, slash - 6) + path.substring(slash);
+        }
+        return path;
+    }
+}
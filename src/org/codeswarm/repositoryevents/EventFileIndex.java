@@ -0,0 +1,317 @@
+/* This file is part of code_swarm.
+
+code_swarm is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+code_swarm is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with code_swarm.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.codeswarm.repositoryevents;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * A time index for a file_events xml-file.<br />
+ * It maps the start of every day that has events to the byte offset of the
+ * first event of that day, so a loader can seek straight to a start date
+ * instead of parsing and discarding everything before it.<br />
+ * The index is built with a single byte scan of the file (no xml parsing)
+ * and kept next to it as <code>&lt;file&gt;.idx</code>. It is rebuilt when
+ * the file's length or modification time changes.<br />
+ * Block-compressed files are indexed by their uncompressed offsets.
+ */
+public class EventFileIndex {
+    private static final Logger LOGGER = Logger.getLogger(EventFileIndex.class.getName());
+    private static final int MAGIC = 0x43534958; // "CSIX"
+    private static final int VERSION = 1;
+    /** Time covered by one index entry */
+    public static final long BUCKET_MILLIS = 86400000L;
+
+    private final long sourceLength;
+    private final long sourceModified;
+    private boolean sorted = true;
+    private long[] bucketStarts = new long[256];
+    private long[] offsets = new long[256];
+    private int count;
+
+    private EventFileIndex(long sourceLength, long sourceModified){
+        this.sourceLength = sourceLength;
+        this.sourceModified = sourceModified;
+    }
+    /**
+     * @param xmlFile an xml event file
+     * @return the sidecar file holding the index of xmlFile
+     */
+    public static File getIndexFile(File xmlFile){
+        return new File(xmlFile.getPath() + ".idx");
+    }
+    /**
+     * loads the index of a file, building (and saving) it first if there is
+     * no up-to-date index.
+     * @param xmlFile the xml event file
+     * @return the index
+     * @throws java.io.IOException when the xml file cannot be read
+     */
+    public static EventFileIndex load(File xmlFile) throws IOException{
+        File indexFile = getIndexFile(xmlFile);
+        if(indexFile.isFile()){
+            try {
+                EventFileIndex index = read(indexFile);
+                if(index.sourceLength == xmlFile.length() && index.sourceModified == xmlFile.lastModified()){
+                    return index;
+                }
+            } catch (IOException ex) {
+                LOGGER.log(Level.WARNING, "ignoring unreadable index {0}: {1}", new Object[]{indexFile, ex.getMessage()});
+            }
+        }
+        EventFileIndex index = build(xmlFile);
+        try {
+            index.write(indexFile);
+        } catch (IOException ex) {
+            // the index still works for this run
+            LOGGER.log(Level.WARNING, "could not save index {0}: {1}", new Object[]{indexFile, ex.getMessage()});
+        }
+        return index;
+    }
+    /**
+     * @return true if the events in the file are sorted by date. Only then
+     *          does {@link #getOffset(long)} skip anything.
+     */
+    public boolean isSorted(){
+        return sorted;
+    }
+    /**
+     * @return the number of index entries
+     */
+    public int size(){
+        return count;
+    }
+    /**
+     * finds where to start parsing to see every event at or after a date.
+     * @param date the start date
+     * @return a byte offset at the start of an event element, or 0
+     */
+    public long getOffset(long date){
+        if(!sorted || count == 0){
+            return 0;
+        }
+        // last bucket starting at or before date
+        int lo = 0;
+        int hi = count - 1;
+        int found = -1;
+        while(lo <= hi){
+            int mid = (lo + hi) >>> 1;
+            if(bucketStarts[mid] <= date){
+                found = mid;
+                lo = mid + 1;
+            }else{
+                hi = mid - 1;
+            }
+        }
+        return found < 0 ? 0 : offsets[found];
+    }
+    /**
+     * opens an xml event file for parsing from an offset returned by
+     * {@link #getOffset(long)}. The stream is a well-formed document: the
+     * skipped part is replaced by an opening file_events tag.
+     * @param xmlFile the xml event file
+     * @param offset the byte offset to start at
+     * @return the stream
+     * @throws java.io.IOException when the file cannot be read
+     */
+    public static InputStream openAt(File xmlFile, long offset) throws IOException{
+        InputStream in = BlockCompressedInputStream.open(xmlFile);
+        if(offset == 0){
+            return new BufferedInputStream(in, 1 << 16);
+        }
+        long skipped = 0;
+        while(skipped < offset){
+            long n = in.skip(offset - skipped);
+            if(n <= 0){
+                in.close();
+                throw new IOException("cannot seek to " + offset + " in " + xmlFile);
+            }
+            skipped += n;
+        }
+        InputStream head = new ByteArrayInputStream("<file_events>".getBytes("UTF-8"));
+        return new BufferedInputStream(new SequenceInputStream(head, in), 1 << 16);
+    }
+
+    private void add(long date, long offset){
+        long bucket = date - ((date % BUCKET_MILLIS) + BUCKET_MILLIS) % BUCKET_MILLIS;
+        if(count > 0 && bucketStarts[count - 1] >= bucket){
+            return;
+        }
+        if(count == bucketStarts.length){
+            long[] grownStarts = new long[count * 2];
+            long[] grownOffsets = new long[count * 2];
+            System.arraycopy(bucketStarts, 0, grownStarts, 0, count);
+            System.arraycopy(offsets, 0, grownOffsets, 0, count);
+            bucketStarts = grownStarts;
+            offsets = grownOffsets;
+        }
+        bucketStarts[count] = bucket;
+        offsets[count] = offset;
+        count++;
+    }
+
+    /**
+     * scans the file for event tags and their date attributes.
+     */
+    static EventFileIndex build(File xmlFile) throws IOException{
+        EventFileIndex index = new EventFileIndex(xmlFile.length(), xmlFile.lastModified());
+        InputStream in = BlockCompressedInputStream.open(xmlFile);
+        try {
+            byte[] buf = new byte[1 << 20];
+            int len = 0;
+            long base = 0; // file offset of buf[0]
+            long maxDate = Long.MIN_VALUE;
+            int n;
+            while((n = in.read(buf, len, buf.length - len)) > 0){
+                len += n;
+                int i = 0;
+                while(true){
+                    int lt = indexOf(buf, (byte)'<', i, len);
+                    if(lt < 0){
+                        i = len;
+                        break;
+                    }
+                    int gt = indexOf(buf, (byte)'>', lt, len);
+                    if(gt < 0){
+                        // tag continues in the next read
+                        i = lt;
+                        break;
+                    }
+                    if(isEventTag(buf, lt, gt)){
+                        int d = findDate(buf, lt, gt);
+                        if(d >= 0){
+                            long date = parseDigits(buf, d, gt);
+                            if(date < maxDate){
+                                index.sorted = false;
+                            }else{
+                                maxDate = date;
+                                index.add(date, base + lt);
+                            }
+                        }
+                    }
+                    i = gt + 1;
+                }
+                System.arraycopy(buf, i, buf, 0, len - i);
+                base += i;
+                len -= i;
+                if(len == buf.length){
+                    byte[] grown = new byte[buf.length * 2];
+                    System.arraycopy(buf, 0, grown, 0, len);
+                    buf = grown;
+                }
+            }
+        } finally {
+            in.close();
+        }
+        return index;
+    }
+
+    private static int indexOf(byte[] buf, byte b, int from, int to){
+        for(int k = from; k < to; k++){
+            if(buf[k] == b){
+                return k;
+            }
+        }
+        return -1;
+    }
+
+    private static boolean isEventTag(byte[] buf, int lt, int gt){
+        return gt - lt > 6 && buf[lt + 1] == 'e' && buf[lt + 2] == 'v' && buf[lt + 3] == 'e'
+                && buf[lt + 4] == 'n' && buf[lt + 5] == 't'
+                && (buf[lt + 6] == ' ' || buf[lt + 6] == '\t' || buf[lt + 6] == '\n' || buf[lt + 6] == '\r');
+    }
+
+    /**
+     * @return the index of the first character of the date attribute's
+     *          value, or -1
+     */
+    private static int findDate(byte[] buf, int lt, int gt){
+        for(int k = lt + 6; k + 6 < gt; k++){
+            if(buf[k] == 'd' && buf[k + 1] == 'a' && buf[k + 2] == 't' && buf[k + 3] == 'e'
+                    && (buf[k - 1] == ' ' || buf[k - 1] == '\t' || buf[k - 1] == '\n' || buf[k - 1] == '\r')){
+                int q = k + 4;
+                while(q < gt && buf[q] != '"' && buf[q] != '\''){
+                    q++;
+                }
+                return q < gt ? q + 1 : -1;
+            }
+        }
+        return -1;
+    }
+
+    private static long parseDigits(byte[] buf, int from, int to){
+        boolean negative = buf[from] == '-';
+        long value = 0;
+        for(int k = negative ? from + 1 : from; k < to && buf[k] >= '0' && buf[k] <= '9'; k++){
+            value = value * 10 + (buf[k] - '0');
+        }
+        return negative ? -value : value;
+    }
+
+    private static EventFileIndex read(File indexFile) throws IOException{
+        DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(indexFile)));
+        try {
+            if(in.readInt() != MAGIC || in.readInt() != VERSION){
+                throw new IOException("not an event index");
+            }
+            EventFileIndex index = new EventFileIndex(in.readLong(), in.readLong());
+            if(in.readLong() != BUCKET_MILLIS){
+                throw new IOException("different bucket size");
+            }
+            index.sorted = in.readBoolean();
+            index.count = in.readInt();
+            index.bucketStarts = new long[Math.max(index.count, 1)];
+            index.offsets = new long[Math.max(index.count, 1)];
+            for(int i = 0; i < index.count; i++){
+                index.bucketStarts[i] = in.readLong();
+                index.offsets[i] = in.readLong();
+            }
+            return index;
+        } finally {
+            in.close();
+        }
+    }
+
+    private void write(File indexFile) throws IOException{
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(indexFile)));
+        try {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeLong(sourceLength);
+            out.writeLong(sourceModified);
+            out.writeLong(BUCKET_MILLIS);
+            out.writeBoolean(sorted);
+            out.writeInt(count);
+            for(int i = 0; i < count; i++){
+                out.writeLong(bucketStarts[i]);
+                out.writeLong(offsets[i]);
+            }
+        } finally {
+            out.close();
+        }
+    }
+}
@@ -0,0 +1,193 @@
+/* This file is part of code_swarm.
+
+code_swarm is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+code_swarm is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with code_swarm.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.codeswarm.repositoryevents;
+
+import java.io.Flushable;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+/**
+ * Passes on only the events that match its criteria: a date range, path
+ * patterns and author lists.<br />
+ * It sits directly behind the parser, so rejected events never reach the
+ * sorter or the queue. Path patterns without regex characters (optionally
+ * followed by <code>.*</code>) are tested as plain prefixes. The decisions
+ * for the {@link #MAX_PATH_DECISIONS} paths seen last are remembered, so a
+ * path that keeps changing is matched only once, while inputs with
+ * millions of paths don't keep a decision for each one.<br />
+ * Flushes are passed on if the downstream handler is {@link Flushable}.
+ */
+public class EventFilter implements EventHandler, Flushable {
+    /** Number of path decisions remembered */
+    public static final int MAX_PATH_DECISIONS = 1 << 16;
+    private final EventHandler handler;
+    private long startDate = Long.MIN_VALUE;
+    private long endDate = Long.MAX_VALUE;
+    private final List<String> includePrefixes = new ArrayList<String>();
+    private final List<Pattern> includePatterns = new ArrayList<Pattern>();
+    private final List<String> excludePrefixes = new ArrayList<String>();
+    private final List<Pattern> excludePatterns = new ArrayList<Pattern>();
+    private final Set<String> includeAuthors = new HashSet<String>();
+    private final Set<String> excludeAuthors = new HashSet<String>();
+    /** the decisions of the paths seen last, most recently used last */
+    private final Map<String, Boolean> pathDecisions = new LinkedHashMap<String, Boolean>(1024, 0.75f, true){
+        protected boolean removeEldestEntry(Map.Entry<String, Boolean> eldest){
+            return size() > MAX_PATH_DECISIONS;
+        }
+    };
+
+    /**
+     * creates a filter that accepts every event.
+     * @param handler receives the accepted events
+     */
+    public EventFilter(EventHandler handler){
+        this.handler = handler;
+    }
+    /**
+     * @param startDate events before this date are dropped
+     */
+    public void setStartDate(long startDate){
+        this.startDate = startDate;
+    }
+    /**
+     * @return the earliest date accepted
+     */
+    public long getStartDate(){
+        return startDate;
+    }
+    /**
+     * @param endDate events after this date are dropped
+     */
+    public void setEndDate(long endDate){
+        this.endDate = endDate;
+    }
+    /**
+     * @return the latest date accepted
+     */
+    public long getEndDate(){
+        return endDate;
+    }
+    /**
+     * adds a path pattern. If there are any, a path has to match one of
+     * them.
+     * @param pattern a prefix or a regular expression matching whole paths
+     */
+    public void addIncludePath(String pattern){
+        addPattern(pattern, includePrefixes, includePatterns);
+    }
+    /**
+     * adds a path pattern. Paths matching any of them are dropped.
+     * @param pattern a prefix or a regular expression matching whole paths
+     */
+    public void addExcludePath(String pattern){
+        addPattern(pattern, excludePrefixes, excludePatterns);
+    }
+    /**
+     * adds an author. If there are any, only their events are accepted.
+     * @param author the author's name
+     */
+    public void addIncludeAuthor(String author){
+        includeAuthors.add(author);
+    }
+    /**
+     * adds an author whose events are dropped.
+     * @param author the author's name
+     */
+    public void addExcludeAuthor(String author){
+        excludeAuthors.add(author);
+    }
+
+    public void handleEvent(long date, String author, String filename, int weight){
+        if(date < startDate || date > endDate){
+            return;
+        }
+        if(!includeAuthors.isEmpty() && !includeAuthors.contains(author)){
+            return;
+        }
+        if(excludeAuthors.contains(author)){
+            return;
+        }
+        if(!acceptsPath(filename)){
+            return;
+        }
+        handler.handleEvent(date, author, filename, weight);
+    }
+
+    public void flush() throws IOException{
+        if(handler instanceof Flushable){
+            ((Flushable)handler).flush();
+        }
+    }
+
+    /**
+     * @param path a path
+     * @return true if the path passes the include and exclude patterns
+     */
+    public boolean acceptsPath(String path){
+        if(includePrefixes.isEmpty() && includePatterns.isEmpty()
+                && excludePrefixes.isEmpty() && excludePatterns.isEmpty()){
+            return true;
+        }
+        Boolean decision = pathDecisions.get(path);
+        if(decision == null){
+            boolean accepted = (includePrefixes.isEmpty() && includePatterns.isEmpty())
+                    || matches(path, includePrefixes, includePatterns);
+            accepted = accepted && !matches(path, excludePrefixes, excludePatterns);
+            decision = Boolean.valueOf(accepted);
+            pathDecisions.put(path, decision);
+        }
+        return decision.booleanValue();
+    }
+
+    private static boolean matches(String path, List<String> prefixes, List<Pattern> patterns){
+        for(String prefix : prefixes){
+            if(path.startsWith(prefix)){
+                return true;
+            }
+        }
+        for(Pattern pattern : patterns){
+            if(pattern.matcher(path).matches()){
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void addPattern(String pattern, List<String> prefixes, List<Pattern> patterns){
+        String prefix = pattern.endsWith(".*") ? pattern.substring(0, pattern.length() - 2) : pattern;
+        if(isPlain(prefix)){
+            prefixes.add(prefix);
+        }else{
+            patterns.add(Pattern.compile(pattern));
+        }
+        pathDecisions.clear();
+    }
+
+    private static boolean isPlain(String s){
+        for(int i = 0; i < s.length(); i++){
+            if("\\^$.|?*+()[]{}".indexOf(s.charAt(i)) >= 0){
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,30 @@
+/* This file is part of code_swarm.
+
+code_swarm is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+code_swarm is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with code_swarm.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.codeswarm.repositoryevents;
+
+/**
+ * Receives repository events one at a time from an event parser.
+ */
+public interface EventHandler {
+    /**
+     * An event was read.
+     * @param date the date of modification
+     * @param author the user that changed the file
+     * @param filename the path of the file that was changed
+     * @param weight the weight of the change (1 if the input has none)
+     */
+    public void handleEvent(long date, String author, String filename, int weight);
+}
@@ -16,34 +16,232 @@ along with code_swarm.  If not, see <http://www.gnu.org/licenses/>.
 
 package org.codeswarm.repositoryevents;
 
-import java.util.ArrayList;
-import java.util.Collections;
+import java.util.AbstractList;
+import java.util.Arrays;
 import java.util.Iterator;
 import java.util.List;
 
 /**
- * represents a list of log entries. Just a simple bean.
+ * represents a list of log entries.<br />
+ * The entries are stored column by column: the dates in a long array, the
+ * authors and paths as int ids into string dictionaries, so every distinct
+ * string is kept once and an entry takes 16 bytes. Weights get a column of
+ * their own once an entry weighs more than 1. The columns grow in
+ * chunks of {@link #CHUNK_SIZE} entries and are never copied as a whole.
+ * Event objects are only created when the list is read through
+ * {@link #iterator()} or {@link #getEvents()}; the index-based getters
+ * avoid them.
  * @author tpraxl
  */
-public class EventList {
-    List<Event> events = new ArrayList<Event>();
+public class EventList implements Iterable<Event> {
+    /** Number of entries per chunk of a column */
+    public static final int CHUNK_SIZE = 1 << 12;
+    private static final int CHUNK_SHIFT = 12;
+    private static final int CHUNK_MASK = CHUNK_SIZE - 1;
+
+    private final StringDictionary authors;
+    private final StringDictionary paths;
+    private long[][] dates = new long[16][];
+    private int[][] authorIds = new int[16][];
+    private int[][] pathIds = new int[16][];
+    /** null as long as every entry weighs 1 */
+    private int[][] weights;
+    private int size;
+
+    /**
+     * creates an empty list with its own dictionaries.
+     */
+    public EventList(){
+        this(new StringDictionary(), new StringDictionary(1024));
+    }
+    /**
+     * creates an empty list that stores its strings in the given
+     * dictionaries, which may be shared with other lists.
+     * @param authors the author dictionary
+     * @param paths the path dictionary
+     */
+    public EventList(StringDictionary authors, StringDictionary paths){
+        this.authors = authors;
+        this.paths = paths;
+    }
     /**
      * add an entry to the list.
      * @param e the repository Event / log entry to add (not null)
      */
     public void addEvent(Event e){
-        events.add(e);
+        add(e.getDate(), e.getAuthor(), e.getFilename());
+    }
+    /**
+     * add an entry to the list.
+     * @param date the date of modification
+     * @param author the user that changed the file, may be null
+     * @param filename the path of the file that was changed
+     */
+    public void add(long date, String author, String filename){
+        add(date, author, filename, 1);
+    }
+    /**
+     * add an entry to the list.
+     * @param date the date of modification
+     * @param author the user that changed the file, may be null
+     * @param filename the path of the file that was changed
+     * @param weight the weight of the change, e.g. the lines changed
+     */
+    public void add(long date, String author, String filename, int weight){
+        int chunk = size >>> CHUNK_SHIFT;
+        if(chunk == dates.length){
+            dates = grow(dates);
+            authorIds = grow(authorIds);
+            pathIds = grow(pathIds);
+            if(weights != null){
+                weights = grow(weights);
+            }
+        }
+        if(dates[chunk] == null){
+            dates[chunk] = new long[CHUNK_SIZE];
+            authorIds[chunk] = new int[CHUNK_SIZE];
+            pathIds[chunk] = new int[CHUNK_SIZE];
+        }
+        int i = size & CHUNK_MASK;
+        dates[chunk][i] = date;
+        authorIds[chunk][i] = author != null ? authors.getId(author) : -1;
+        pathIds[chunk][i] = paths.getId(filename);
+        if(weight != 1 || weights != null && weights[chunk] != null){
+            setWeight(chunk, i, weight);
+        }
+        size++;
+    }
+    /**
+     * @return the number of entries
+     */
+    public int size(){
+        return size;
+    }
+    /**
+     * @return true if there are no entries
+     */
+    public boolean isEmpty(){
+        return size == 0;
+    }
+    /**
+     * @param index the index of an entry
+     * @return the date of the entry
+     */
+    public long getDate(int index){
+        check(index);
+        return dates[index >>> CHUNK_SHIFT][index & CHUNK_MASK];
+    }
+    /**
+     * @param index the index of an entry
+     * @return the id of the entry's author in {@link #getAuthors()}, or -1
+     *          if it has none
+     */
+    public int getAuthorId(int index){
+        check(index);
+        return authorIds[index >>> CHUNK_SHIFT][index & CHUNK_MASK];
+    }
+    /**
+     * @param index the index of an entry
+     * @return the id of the entry's path in {@link #getPaths()}
+     */
+    public int getPathId(int index){
+        check(index);
+        return pathIds[index >>> CHUNK_SHIFT][index & CHUNK_MASK];
+    }
+    /**
+     * @param index the index of an entry
+     * @return the weight of the entry
+     */
+    public int getWeight(int index){
+        check(index);
+        int[] chunk = weights == null ? null : weights[index >>> CHUNK_SHIFT];
+        return chunk == null ? 1 : chunk[index & CHUNK_MASK];
+    }
+    /**
+     * @param index the index of an entry
+     * @return the author of the entry, may be null
+     */
+    public String getAuthor(int index){
+        int id = getAuthorId(index);
+        return id < 0 ? null : authors.getString(id);
+    }
+    /**
+     * @param index the index of an entry
+     * @return the path of the entry
+     */
+    public String getFilename(int index){
+        return paths.getString(getPathId(index));
+    }
+    /**
+     * @return the dictionary holding the authors
+     */
+    public StringDictionary getAuthors(){
+        return authors;
+    }
+    /**
+     * @return the dictionary holding the paths
+     */
+    public StringDictionary getPaths(){
+        return paths;
+    }
+    /**
+     * drops all entries. The dictionaries keep their strings.
+     */
+    public void clear(){
+        dates = new long[16][];
+        authorIds = new int[16][];
+        pathIds = new int[16][];
+        weights = null;
+        size = 0;
     }
     /**
      * @return an iterator-view of the list
      */
     public Iterator<Event> iterator(){
-        return events.iterator();
+        return getEvents().iterator();
     }
     /**
-     * @return an unmodifiableList-View of the list
+     * @return an unmodifiableList-View of the list. Every access creates a
+     *          new Event.
      */
     public List<Event> getEvents(){
-        return Collections.unmodifiableList(events);
+        return new AbstractList<Event>(){
+            public Event get(int index){
+                return new Event(getFilename(index), getDate(index), getAuthor(index));
+            }
+            public int size(){
+                return size;
+            }
+        };
+    }
+
+    private void setWeight(int chunk, int i, int weight){
+        if(weights == null){
+            weights = new int[dates.length][];
+        }
+        if(weights[chunk] == null){
+            // the entries before weigh 1
+            weights[chunk] = new int[CHUNK_SIZE];
+            Arrays.fill(weights[chunk], 1);
+        }
+        weights[chunk][i] = weight;
+    }
+
+    private void check(int index){
+        if(index < 0 || index >= size){
+            throw new IndexOutOfBoundsException("index " + index + ", size " + size);
+        }
+    }
+
+    private static long[][] grow(long[][] chunks){
+        long[][] grown = new long[chunks.length * 2][];
+        System.arraycopy(chunks, 0, grown, 0, chunks.length);
+        return grown;
+    }
+
+    private static int[][] grow(int[][] chunks){
+        int[][] grown = new int[chunks.length * 2][];
+        System.arraycopy(chunks, 0, grown, 0, chunks.length);
+        return grown;
     }
 }
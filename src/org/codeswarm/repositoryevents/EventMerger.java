@@ -0,0 +1,172 @@
+/* This file is part of code_swarm.
+
+code_swarm is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+code_swarm is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with code_swarm.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.codeswarm.repositoryevents;
+
+import java.util.PriorityQueue;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Merges several date-sorted event streams into one, lazily.<br />
+ * Every stream is produced on its own thread into its own input (see
+ * {@link #getInput(int)}), which buffers a bounded number of blocks of
+ * events. {@link #merge} takes the earliest event of all inputs with a heap
+ * of cursors, so nothing is materialized beyond the buffers. Events with
+ * equal dates come from the lower-numbered input first.
+ */
+public class EventMerger {
+    private static final int BLOCK_SIZE = 1024;
+    private static final Block END = new Block(0);
+
+    private final Input[] inputs;
+
+    /**
+     * creates a merger.
+     * @param inputCount the number of streams to merge
+     * @param bufferedBlocks the number of blocks of 1024 events each input
+     *          buffers before its producer has to wait
+     */
+    public EventMerger(int inputCount, int bufferedBlocks){
+        inputs = new Input[inputCount];
+        for(int i = 0; i < inputCount; i++){
+            inputs[i] = new Input(i, Math.max(bufferedBlocks, 1));
+        }
+    }
+    /**
+     * @param input the number of the stream
+     * @return the handler its producer passes its events to, in date order.
+     *          The handler may only be used by one thread.
+     */
+    public EventHandler getInput(int input){
+        return inputs[input];
+    }
+    /**
+     * ends a stream. Its producer must call this exactly once, also when it
+     * failed, or {@link #merge} waits forever.
+     * @param input the number of the stream
+     */
+    public void finish(int input){
+        inputs[input].finish();
+    }
+    /**
+     * passes the events of all streams to the handler in date order, until
+     * every stream is finished.
+     * @param handler receives the merged events
+     * @throws InterruptedException when interrupted while waiting for input
+     */
+    public void merge(EventHandler handler) throws InterruptedException{
+        PriorityQueue<Input> heap = new PriorityQueue<Input>(Math.max(inputs.length, 1));
+        for(Input input : inputs){
+            if(input.next()){
+                heap.add(input);
+            }
+        }
+        while(!heap.isEmpty()){
+            Input input = heap.poll();
+            Block b = input.current;
+            int k = input.position;
+            handler.handleEvent(b.dates[k], b.authors[k], b.paths[k], b.weights[k]);
+            if(input.next()){
+                heap.add(input);
+            }
+        }
+    }
+
+    private static class Block {
+        final long[] dates;
+        final String[] authors;
+        final String[] paths;
+        final int[] weights;
+        int count;
+
+        Block(int size){
+            dates = new long[size];
+            authors = new String[size];
+            paths = new String[size];
+            weights = new int[size];
+        }
+    }
+
+    private static class Input implements EventHandler, Comparable<Input> {
+        private final int index;
+        private final BlockingQueue<Block> blocks;
+        // producer side
+        private Block filling = new Block(BLOCK_SIZE);
+        // consumer side
+        Block current;
+        int position;
+
+        Input(int index, int bufferedBlocks){
+            this.index = index;
+            this.blocks = new ArrayBlockingQueue<Block>(bufferedBlocks + 1);
+        }
+
+        public void handleEvent(long date, String author, String filename, int weight){
+            int k = filling.count;
+            filling.dates[k] = date;
+            filling.authors[k] = author;
+            filling.paths[k] = filename;
+            filling.weights[k] = weight;
+            filling.count++;
+            if(filling.count == BLOCK_SIZE){
+                put(filling);
+                filling = new Block(BLOCK_SIZE);
+            }
+        }
+
+        void finish(){
+            if(filling.count > 0){
+                put(filling);
+            }
+            filling = null;
+            put(END);
+        }
+
+        private void put(Block b){
+            try {
+                blocks.put(b);
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("interrupted while buffering events", ex);
+            }
+        }
+
+        /**
+         * moves to the next event, waiting for the producer if necessary.
+         * @return false once the stream has ended
+         */
+        boolean next() throws InterruptedException{
+            if(current != null && ++position < current.count){
+                return true;
+            }
+            if(current == END){
+                return false;
+            }
+            current = blocks.take();
+            position = 0;
+            return current != END;
+        }
+
+        public int compareTo(Input o){
+            long d = current.dates[position];
+            long od = o.current.dates[o.position];
+            if(d != od){
+                return d < od ? -1 : 1;
+            }
+            return index - o.index;
+        }
+    }
+}
@@ -0,0 +1,31 @@
+/* This file is part of code_swarm.
+
+code_swarm is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+code_swarm is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with code_swarm.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.codeswarm.repositoryevents;
+
+/**
+ * Produces repository events while they are being read, e.g. from a
+ * repository log that is still being fetched, instead of from a finished
+ * event file.<br />
+ * The events should arrive roughly in date order.
+ */
+public interface EventSource {
+    /**
+     * sends every event to the handler as soon as it is available and
+     * returns when there are no more.
+     * @param handler receives the events
+     */
+    public void emit(EventHandler handler);
+}
@@ -0,0 +1,693 @@
+/* This file is part of code_swarm.
+
+code_swarm is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+code_swarm is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with code_swarm.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.codeswarm.repositoryevents;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * A local store for the events fetched from repositories.<br />
+ * The events of a repository are kept in segments: binary event files that
+ * each hold a range of revisions and are named by the SHA-1 of their
+ * contents. A manifest maps every repository url to its segments in
+ * revision order, so a repeated run reads the memory-mapped segments
+ * without parsing anything and only fetches the revisions after the last
+ * one. Repositories whose revisions are not numbered (like git commits)
+ * count their revisions and keep the id of the last one with each
+ * segment.<br />
+ * Once a repository has more than {@link #MAX_SEGMENTS} segments the newest
+ * ones are merged in the background, about as many as it takes to match the
+ * size of the next older one, so a long fetch that adds a segment every few
+ * minutes doesn't rewrite all of its events each time. When the segments
+ * take more than the size limit, the repositories used least recently are
+ * dropped.<br />
+ * Segments and manifest are synced to disk before they are referred to, so
+ * a stored segment survives a crash of the process or the system.
+ */
+public class EventStore {
+    private static final Logger LOGGER = Logger.getLogger(EventStore.class.getName());
+    private static final int MAGIC = 0x4353454d; // "CSEM"
+    private static final int VERSION = 2;
+    private static final String MANIFEST = "manifest";
+    private static final String SEGMENT_SUFFIX = ".csev";
+    private static final String TEMP_SUFFIX = ".tmp";
+    /** Number of segments of a repository above which they are merged */
+    public static final int MAX_SEGMENTS = 8;
+
+    private final File directory;
+    private final long maxBytes;
+    private final Map<String, Repository> repositories = new HashMap<String, Repository>();
+    /** segments being read, by name, which must not be deleted yet */
+    private final Map<String, Integer> pinned = new HashMap<String, Integer>();
+    private final ExecutorService compactor = Executors.newSingleThreadExecutor(new ThreadFactory(){
+        public Thread newThread(Runnable r){
+            Thread t = new Thread(r, "code_swarm cache compactor");
+            t.setDaemon(true);
+            return t;
+        }
+    });
+    private final ExecutorService writer = Executors.newSingleThreadExecutor(new ThreadFactory(){
+        public Thread newThread(Runnable r){
+            Thread t = new Thread(r, "code_swarm cache writer");
+            t.setDaemon(true);
+            return t;
+        }
+    });
+
+    /**
+     * opens a store, creating its directory if needed. Files in the
+     * directory that the manifest doesn't refer to are deleted.
+     * @param directory the directory holding the manifest and the segments
+     * @param maxBytes the size the segments are kept below
+     * @throws java.io.IOException when the directory cannot be created
+     */
+    public EventStore(File directory, long maxBytes) throws IOException{
+        this.directory = directory;
+        this.maxBytes = maxBytes;
+        if(!directory.isDirectory() && !directory.mkdirs()){
+            throw new IOException("cannot create " + directory);
+        }
+        File manifest = new File(directory, MANIFEST);
+        if(manifest.isFile()){
+            try {
+                readManifest(manifest);
+            } catch (IOException ex) {
+                LOGGER.log(Level.WARNING, "ignoring unreadable manifest {0}: {1}", new Object[]{manifest, ex.getMessage()});
+                repositories.clear();
+            }
+        }
+        synchronized(this){
+            deleteUnreferenced(true);
+        }
+    }
+    /**
+     * @return the directory of the store
+     */
+    public File getDirectory(){
+        return directory;
+    }
+    /**
+     * @param url the repository url
+     * @return the last revision stored for the repository, or -1
+     */
+    public synchronized long getLastRevision(String url){
+        Repository r = repositories.get(url);
+        if(r == null || r.segments.isEmpty()){
+            return -1;
+        }
+        return r.segments.get(r.segments.size() - 1).lastRevision;
+    }
+    /**
+     * @param url the repository url
+     * @return the id of the last revision stored for the repository, or
+     *          null if there is none or it was stored without an id
+     */
+    public synchronized String getLastRevisionId(String url){
+        Repository r = repositories.get(url);
+        if(r == null || r.segments.isEmpty()){
+            return null;
+        }
+        return r.segments.get(r.segments.size() - 1).lastRevisionId;
+    }
+    /**
+     * @param url the repository url
+     * @return the number of events stored for the repository
+     */
+    public synchronized long getEventCount(String url){
+        Repository r = repositories.get(url);
+        long count = 0;
+        if(r != null){
+            for(Segment s : r.segments){
+                count += s.eventCount;
+            }
+        }
+        return count;
+    }
+    /**
+     * @param url the repository url
+     * @return the number of segments stored for the repository
+     */
+    public synchronized int getSegmentCount(String url){
+        Repository r = repositories.get(url);
+        return r == null ? 0 : r.segments.size();
+    }
+    /**
+     * @return the size of all segments in bytes
+     */
+    public synchronized long getSize(){
+        long size = 0;
+        for(Segment s : referencedSegments().values()){
+            size += s.size;
+        }
+        return size;
+    }
+
+    /**
+     * passes the stored events of a repository to a handler, in the order
+     * they were stored.
+     * @param url the repository url
+     * @param handler receives the events
+     * @throws java.io.IOException when a segment cannot be read
+     */
+    public void replay(String url, EventHandler handler) throws IOException{
+        List<Segment> segments;
+        synchronized(this){
+            Repository r = repositories.get(url);
+            if(r == null){
+                return;
+            }
+            r.lastAccess = System.currentTimeMillis();
+            segments = new ArrayList<Segment>(r.segments);
+            pin(segments);
+        }
+        try {
+            for(Segment s : segments){
+                BinaryEventReader reader = new BinaryEventReader(new File(directory, s.name));
+                try {
+                    long count = reader.getEventCount();
+                    for(long i = 0; i < count; i++){
+                        handler.handleEvent(reader.getDate(i), reader.getAuthor(reader.getAuthorId(i)),
+                                reader.getPath(reader.getPathId(i)), reader.getWeight(i));
+                    }
+                } finally {
+                    reader.close();
+                }
+            }
+        } finally {
+            synchronized(this){
+                unpin(segments);
+                deleteUnreferenced(false);
+            }
+        }
+    }
+
+    /**
+     * stores the events of a range of revisions after the ones already
+     * stored for a repository.
+     * @param url the repository url
+     * @param firstRevision the first revision of the range
+     * @param lastRevision the last revision of the range
+     * @param events the events of the range
+     * @throws java.io.IOException when the segment cannot be written or the
+     *          range overlaps the stored revisions
+     */
+    public void addSegment(String url, long firstRevision, long lastRevision, EventList events) throws IOException{
+        addSegment(url, firstRevision, lastRevision, null, events);
+    }
+    /**
+     * stores the events of a range of revisions like
+     * {@link #addSegment(String, long, long, String, EventList)}, but on a
+     * thread of the store, so the caller can go on reading. Segments are
+     * written one after the other, in the order they were submitted. The
+     * list must not be changed until the write has finished.
+     * @param url the repository url
+     * @param firstRevision the number of the first revision of the range
+     * @param lastRevision the number of the last revision of the range
+     * @param lastRevisionId the id of the last revision, may be null
+     * @param events the events of the range
+     * @return done once the segment is stored; fails with the IOException
+     *          of {@link #addSegment(String, long, long, String, EventList)}
+     */
+    public Future<Void> submitSegment(final String url, final long firstRevision, final long lastRevision,
+            final String lastRevisionId, final EventList events){
+        return writer.submit(new Callable<Void>(){
+            public Void call() throws IOException{
+                addSegment(url, firstRevision, lastRevision, lastRevisionId, events);
+                return null;
+            }
+        });
+    }
+    /**
+     * stores the events of a range of revisions after the ones already
+     * stored for a repository, along with the id of the last revision.
+     * @param url the repository url
+     * @param firstRevision the number of the first revision of the range
+     * @param lastRevision the number of the last revision of the range
+     * @param lastRevisionId the id of the last revision, may be null
+     * @param events the events of the range
+     * @throws java.io.IOException when the segment cannot be written or the
+     *          range overlaps the stored revisions
+     */
+    public void addSegment(String url, long firstRevision, long lastRevision, String lastRevisionId,
+            EventList events) throws IOException{
+        File temp = File.createTempFile("segment", TEMP_SUFFIX, directory);
+        long count;
+        try {
+            // the segment gets string tables of its own with just the strings its events use, as the
+            // list's dictionaries may hold every string of a long fetch
+            StringDictionary authors = new StringDictionary();
+            StringDictionary paths = new StringDictionary(1024);
+            BinaryEventWriter writer = new BinaryEventWriter(temp, authors, paths);
+            try {
+                int[] authorIds = remapping(events.getAuthors());
+                int[] pathIds = remapping(events.getPaths());
+                int anonymous = -1;
+                int size = events.size();
+                for(int i = 0; i < size; i++){
+                    int authorId = events.getAuthorId(i);
+                    if(authorId < 0){
+                        // the xml files have an empty author for anonymous commits
+                        if(anonymous < 0){
+                            anonymous = authors.getId("");
+                        }
+                        authorId = anonymous;
+                    }else{
+                        if(authorIds[authorId] < 0){
+                            authorIds[authorId] = authors.getId(events.getAuthors().getString(authorId));
+                        }
+                        authorId = authorIds[authorId];
+                    }
+                    int pathId = events.getPathId(i);
+                    if(pathIds[pathId] < 0){
+                        pathIds[pathId] = paths.getId(events.getPaths().getString(pathId));
+                    }
+                    writer.write(events.getDate(i), authorId, pathIds[pathId], events.getWeight(i));
+                }
+            } finally {
+                writer.close();
+            }
+            count = writer.getEventCount();
+            sync(temp);
+        } catch (IOException ex) {
+            temp.delete();
+            throw ex;
+        }
+        String name = contentName(temp);
+        synchronized(this){
+            Repository r = repositories.get(url);
+            if(r == null){
+                r = new Repository(url);
+                repositories.put(url, r);
+            }else if(!r.segments.isEmpty() && firstRevision <= r.segments.get(r.segments.size() - 1).lastRevision){
+                temp.delete();
+                throw new IOException("revisions " + firstRevision + " to " + lastRevision
+                        + " overlap the stored ones of " + url);
+            }
+            r.segments.add(moveIntoStore(temp, name, firstRevision, lastRevision, lastRevisionId, count));
+            r.lastAccess = System.currentTimeMillis();
+            evict(r);
+            saveManifest();
+            deleteUnreferenced(false);
+            if(r.segments.size() > MAX_SEGMENTS && !r.compacting){
+                r.compacting = true;
+                final String compactUrl = url;
+                compactor.execute(new Runnable(){
+                    public void run(){
+                        compact(compactUrl);
+                    }
+                });
+            }
+        }
+    }
+
+    /**
+     * drops the events of a repository.
+     * @param url the repository url
+     * @throws java.io.IOException when the manifest cannot be written
+     */
+    public synchronized void remove(String url) throws IOException{
+        if(repositories.remove(url) != null){
+            saveManifest();
+            deleteUnreferenced(false);
+        }
+    }
+    /**
+     * drops the events of every repository.
+     * @throws java.io.IOException when the manifest cannot be written
+     */
+    public synchronized void clear() throws IOException{
+        repositories.clear();
+        saveManifest();
+        deleteUnreferenced(false);
+    }
+
+    /**
+     * merges the newest segments of a repository into one. Segments added in
+     * the meantime are kept after the merged one.
+     */
+    private void compact(String url){
+        List<Segment> merged;
+        int from;
+        synchronized(this){
+            Repository r = repositories.get(url);
+            if(r == null){
+                return;
+            }
+            from = compactionStart(r.segments);
+            merged = new ArrayList<Segment>(r.segments.subList(from, r.segments.size()));
+            pin(merged);
+        }
+        File temp = null;
+        try {
+            temp = File.createTempFile("segment", TEMP_SUFFIX, directory);
+            BinaryEventWriter writer = new BinaryEventWriter(temp);
+            try {
+                for(Segment s : merged){
+                    BinaryEventReader reader = new BinaryEventReader(new File(directory, s.name));
+                    try {
+                        long count = reader.getEventCount();
+                        for(long i = 0; i < count; i++){
+                            writer.write(reader.getDate(i), reader.getAuthor(reader.getAuthorId(i)),
+                                    reader.getPath(reader.getPathId(i)), reader.getWeight(i));
+                        }
+                    } finally {
+                        reader.close();
+                    }
+                }
+            } finally {
+                writer.close();
+            }
+            sync(temp);
+            String name = contentName(temp);
+            synchronized(this){
+                Repository r = repositories.get(url);
+                if(r != null && r.segments.size() >= from + merged.size()
+                        && r.segments.subList(from, from + merged.size()).equals(merged)){
+                    Segment last = merged.get(merged.size() - 1);
+                    Segment s = moveIntoStore(temp, name, merged.get(0).firstRevision,
+                            last.lastRevision, last.lastRevisionId, writer.getEventCount());
+                    r.segments.subList(from, from + merged.size()).clear();
+                    r.segments.add(from, s);
+                    saveManifest();
+                }else{
+                    // the repository was dropped or replaced meanwhile
+                    temp.delete();
+                }
+            }
+        } catch (IOException ex) {
+            LOGGER.log(Level.WARNING, "could not compact the segments of {0}: {1}", new Object[]{url, ex.getMessage()});
+            if(temp != null){
+                temp.delete();
+            }
+        } finally {
+            synchronized(this){
+                unpin(merged);
+                Repository r = repositories.get(url);
+                if(r != null){
+                    r.compacting = false;
+                }
+                deleteUnreferenced(false);
+            }
+        }
+    }
+
+    /**
+     * picks the segments to merge: the newest ones, going back as long as
+     * the next older segment is no larger than the ones picked so far
+     * together, but at least enough to get back to {@link #MAX_SEGMENTS}.
+     * @return the index of the oldest segment to merge
+     */
+    private static int compactionStart(List<Segment> segments){
+        // at least the two newest
+        int from = segments.size() - 2;
+        long size = segments.get(from).size + segments.get(from + 1).size;
+        while(from > 0 && (segments.get(from - 1).size <= size || from > MAX_SEGMENTS - 1)){
+            from--;
+            size += segments.get(from).size;
+        }
+        return from;
+    }
+
+    /**
+     * @return a table from the ids of a dictionary to the ids of a segment,
+     *          all -1 as no string was written yet
+     */
+    private static int[] remapping(StringDictionary dictionary){
+        int[] ids = new int[dictionary.size()];
+        Arrays.fill(ids, -1);
+        return ids;
+    }
+
+    /**
+     * forces the contents of a file to the disk.
+     */
+    private static void sync(File f) throws IOException{
+        RandomAccessFile raf = new RandomAccessFile(f, "rw");
+        try {
+            raf.getFD().sync();
+        } finally {
+            raf.close();
+        }
+    }
+
+    /**
+     * drops the repositories used least recently until the segments fit in
+     * the size limit. The given repository is kept in any case.
+     */
+    private void evict(Repository keep){
+        long size = getSize();
+        while(size > maxBytes){
+            Repository oldest = null;
+            for(Repository r : repositories.values()){
+                if(r != keep && (oldest == null || r.lastAccess < oldest.lastAccess)){
+                    oldest = r;
+                }
+            }
+            if(oldest == null){
+                return;
+            }
+            LOGGER.log(Level.FINE, "evicting {0} from the event cache", oldest.url);
+            repositories.remove(oldest.url);
+            size = getSize();
+        }
+    }
+
+    /**
+     * renames a written segment to its content name. If there already is a
+     * segment with the same contents, it is shared.
+     */
+    private Segment moveIntoStore(File temp, String name, long firstRevision, long lastRevision,
+            String lastRevisionId, long eventCount) throws IOException{
+        File target = new File(directory, name);
+        if(target.isFile()){
+            temp.delete();
+        }else if(!temp.renameTo(target)){
+            temp.delete();
+            throw new IOException("cannot rename " + temp + " to " + target);
+        }
+        return new Segment(name, firstRevision, lastRevision, lastRevisionId, eventCount, target.length());
+    }
+
+    private static String contentName(File f) throws IOException{
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-1");
+        } catch (NoSuchAlgorithmException ex) {
+            throw new IOException("SHA-1 is not available");
+        }
+        InputStream in = new FileInputStream(f);
+        try {
+            byte[] buffer = new byte[1 << 16];
+            int n;
+            while((n = in.read(buffer)) > 0){
+                digest.update(buffer, 0, n);
+            }
+        } finally {
+            in.close();
+        }
+        StringBuilder sb = new StringBuilder(48);
+        for(byte b : digest.digest()){
+            sb.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+        }
+        return sb.append(SEGMENT_SUFFIX).toString();
+    }
+
+    private Map<String, Segment> referencedSegments(){
+        Map<String, Segment> segments = new HashMap<String, Segment>();
+        for(Repository r : repositories.values()){
+            for(Segment s : r.segments){
+                segments.put(s.name, s);
+            }
+        }
+        return segments;
+    }
+
+    private void pin(List<Segment> segments){
+        for(Segment s : segments){
+            Integer n = pinned.get(s.name);
+            pinned.put(s.name, Integer.valueOf(n == null ? 1 : n.intValue() + 1));
+        }
+    }
+
+    private void unpin(List<Segment> segments){
+        for(Segment s : segments){
+            int n = pinned.get(s.name).intValue();
+            if(n == 1){
+                pinned.remove(s.name);
+            }else{
+                pinned.put(s.name, Integer.valueOf(n - 1));
+            }
+        }
+    }
+
+    /**
+     * deletes the segments no repository refers to and nobody reads.
+     * @param temporary also delete leftover temporary files; only safe when
+     *          nothing is being written
+     */
+    private void deleteUnreferenced(boolean temporary){
+        Set<String> keep = new HashSet<String>(referencedSegments().keySet());
+        keep.addAll(pinned.keySet());
+        File[] files = directory.listFiles();
+        if(files == null){
+            return;
+        }
+        for(File f : files){
+            String name = f.getName();
+            if((name.endsWith(SEGMENT_SUFFIX) && !keep.contains(name))
+                    || (temporary && name.endsWith(TEMP_SUFFIX))){
+                if(!f.delete()){
+                    LOGGER.log(Level.WARNING, "could not delete {0}", f);
+                }
+            }
+        }
+    }
+
+    private void readManifest(File manifest) throws IOException{
+        DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(manifest)));
+        try {
+            if(in.readInt() != MAGIC){
+                throw new IOException("not an event store manifest");
+            }
+            int version = in.readInt();
+            if(version != VERSION){
+                throw new IOException("unsupported manifest version " + version);
+            }
+            int repositoryCount = in.readInt();
+            for(int i = 0; i < repositoryCount; i++){
+                Repository r = new Repository(in.readUTF());
+                r.lastAccess = in.readLong();
+                int segmentCount = in.readInt();
+                for(int j = 0; j < segmentCount; j++){
+                    String name = in.readUTF();
+                    long firstRevision = in.readLong();
+                    long lastRevision = in.readLong();
+                    String lastRevisionId = in.readBoolean() ? in.readUTF() : null;
+                    r.segments.add(new Segment(name, firstRevision, lastRevision, lastRevisionId, in.readLong(), in.readLong()));
+                }
+                repositories.put(r.url, r);
+            }
+        } finally {
+            in.close();
+        }
+        // a segment may have been deleted by hand
+        for(Repository r : new ArrayList<Repository>(repositories.values())){
+            for(Segment s : r.segments){
+                if(!new File(directory, s.name).isFile()){
+                    LOGGER.log(Level.WARNING, "dropping {0} from the event cache, {1} is missing", new Object[]{r.url, s.name});
+                    repositories.remove(r.url);
+                    break;
+                }
+            }
+        }
+    }
+
+    /**
+     * writes the manifest to a temporary file first, so a crash leaves
+     * either the old or the new one.
+     */
+    private void saveManifest() throws IOException{
+        File manifest = new File(directory, MANIFEST);
+        File temp = new File(directory, MANIFEST + ".new");
+        FileOutputStream file = new FileOutputStream(temp);
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(file));
+        try {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(repositories.size());
+            for(Repository r : repositories.values()){
+                out.writeUTF(r.url);
+                out.writeLong(r.lastAccess);
+                out.writeInt(r.segments.size());
+                for(Segment s : r.segments){
+                    out.writeUTF(s.name);
+                    out.writeLong(s.firstRevision);
+                    out.writeLong(s.lastRevision);
+                    out.writeBoolean(s.lastRevisionId != null);
+                    if(s.lastRevisionId != null){
+                        out.writeUTF(s.lastRevisionId);
+                    }
+                    out.writeLong(s.eventCount);
+                    out.writeLong(s.size);
+                }
+            }
+            out.flush();
+            file.getFD().sync();
+        } finally {
+            out.close();
+        }
+        if(!temp.renameTo(manifest)){
+            // renaming onto an existing file fails on some platforms
+            manifest.delete();
+            if(!temp.renameTo(manifest)){
+                throw new IOException("cannot rename " + temp + " to " + manifest);
+            }
+        }
+    }
+
+    private static class Repository {
+        final String url;
+        long lastAccess;
+        final List<Segment> segments = new ArrayList<Segment>();
+        boolean compacting = false;
+
+        Repository(String url){
+            this.url = url;
+        }
+    }
+
+    private static class Segment {
+        final String name;
+        final long firstRevision;
+        final long lastRevision;
+        final String lastRevisionId;
+        final long eventCount;
+        final long size;
+
+        Segment(String name, long firstRevision, long lastRevision, String lastRevisionId, long eventCount, long size){
+            this.name = name;
+            this.firstRevision = firstRevision;
+            this.lastRevision = lastRevision;
+            this.lastRevisionId = lastRevisionId;
+            this.eventCount = eventCount;
+            this.size = size;
+        }
+    }
+}
@@ -0,0 +1,321 @@
+/* This file is part of code_swarm.
+
+code_swarm is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+code_swarm is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with code_swarm.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.codeswarm.repositoryevents;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * Sorts an event stream by date with a bounded amount of memory.<br />
+ * Events are collected into runs of at most <code>runSize</code> events;
+ * the run arrays grow as events arrive, so small inputs stay small.
+ * Each full run is sorted and spilled to a temporary file. {@link #merge}
+ * then k-way merges the runs lazily, so the first event is handed on as soon
+ * as the merge starts. Authors and paths are kept once in dictionaries;
+ * runs only hold their ids.<br />
+ * Events with equal dates keep their input order.
+ */
+public class ExternalEventSorter implements EventHandler {
+    /** Maximum number of runs merged at once; more runs are merged in passes */
+    private static final int MAX_FAN_IN = 64;
+    private static final int BUFFER_SIZE = 1 << 16;
+    /** Initial capacity of the run arrays; they grow on demand up to runSize */
+    private static final int INITIAL_CAPACITY = 1024;
+
+    private final int runSize;
+    private final File tempDir;
+    private final StringDictionary authors = new StringDictionary();
+    private final StringDictionary paths = new StringDictionary();
+    private final List<File> runs = new ArrayList<File>();
+
+    private long[] dates;
+    private int[] authorIds;
+    private int[] pathIds;
+    private int[] weights;
+    private int count;
+
+    /**
+     * creates a sorter.
+     * @param runSize the number of events held in memory before a run is
+     *          spilled to disk
+     * @param tempDir the directory for run files, or null for the default
+     *          temporary directory
+     */
+    public ExternalEventSorter(int runSize, File tempDir){
+        this.runSize = Math.max(runSize, 1);
+        this.tempDir = tempDir;
+        int capacity = Math.min(this.runSize, INITIAL_CAPACITY);
+        dates = new long[capacity];
+        authorIds = new int[capacity];
+        pathIds = new int[capacity];
+        weights = new int[capacity];
+    }
+    /**
+     * adds an event to the current run, spilling the run when it is full.
+     * @param date the date of modification
+     * @param author the user that changed the file
+     * @param filename the path of the file that was changed
+     * @param weight the weight of the change
+     */
+    public void handleEvent(long date, String author, String filename, int weight){
+        if(count == runSize){
+            try {
+                spill();
+            } catch (IOException ex) {
+                throw new RuntimeException("could not write sort run to " + tempDir, ex);
+            }
+        }
+        if(count == dates.length){
+            grow();
+        }
+        dates[count] = date;
+        authorIds[count] = authors.getId(author);
+        pathIds[count] = paths.getId(filename);
+        weights[count] = weight;
+        count++;
+    }
+    /**
+     * doubles the run arrays, but not beyond runSize.
+     */
+    private void grow(){
+        int capacity = (int)Math.min((long)dates.length * 2, runSize);
+        dates = Arrays.copyOf(dates, capacity);
+        authorIds = Arrays.copyOf(authorIds, capacity);
+        pathIds = Arrays.copyOf(pathIds, capacity);
+        weights = Arrays.copyOf(weights, capacity);
+    }
+    /**
+     * @return the number of runs spilled to disk so far
+     */
+    public int getRunCount(){
+        return runs.size();
+    }
+    /**
+     * passes all events added so far to the handler, in date order, and
+     * deletes the run files.
+     * @param handler receives the sorted events
+     * @throws java.io.IOException when a run file cannot be read or written
+     */
+    public void merge(EventHandler handler) throws IOException{
+        try {
+            int[] order = sortCurrentRun();
+            if(runs.isEmpty()){
+                // everything fit into memory
+                for(int i = 0; i < count; i++){
+                    int k = order[i];
+                    handler.handleEvent(dates[k], authors.getString(authorIds[k]), paths.getString(pathIds[k]), weights[k]);
+                }
+                count = 0;
+                return;
+            }
+            writeRun(order);
+            while(runs.size() > MAX_FAN_IN){
+                // merge consecutive groups, so runs stay in input order
+                List<File> merged = new ArrayList<File>();
+                while(!runs.isEmpty()){
+                    List<File> group = runs.subList(0, Math.min(MAX_FAN_IN, runs.size()));
+                    File run = createRunFile();
+                    DataOutputStream out = openRun(run);
+                    try {
+                        mergeRuns(new ArrayList<File>(group), null, out);
+                    } finally {
+                        out.close();
+                    }
+                    merged.add(run);
+                    group.clear();
+                }
+                runs.addAll(merged);
+            }
+            mergeRuns(runs, handler, null);
+            runs.clear();
+        } finally {
+            for(File run : runs){
+                run.delete();
+            }
+            runs.clear();
+        }
+    }
+
+    private void spill() throws IOException{
+        writeRun(sortCurrentRun());
+    }
+
+    private void writeRun(int[] order) throws IOException{
+        File run = createRunFile();
+        DataOutputStream out = openRun(run);
+        try {
+            for(int i = 0; i < count; i++){
+                int k = order[i];
+                out.writeLong(dates[k]);
+                out.writeInt(authorIds[k]);
+                out.writeInt(pathIds[k]);
+                out.writeInt(weights[k]);
+            }
+        } finally {
+            out.close();
+        }
+        runs.add(run);
+        count = 0;
+    }
+
+    private File createRunFile() throws IOException{
+        File run = File.createTempFile("code_swarm-sort", ".run", tempDir);
+        run.deleteOnExit();
+        return run;
+    }
+
+    private static DataOutputStream openRun(File run) throws IOException{
+        return new DataOutputStream(new BufferedOutputStream(new FileOutputStream(run), BUFFER_SIZE));
+    }
+
+    /**
+     * merges the given runs either into the handler or into out, deleting
+     * the runs afterwards.
+     */
+    private void mergeRuns(List<File> group, EventHandler handler, DataOutputStream out) throws IOException{
+        PriorityQueue<RunCursor> heap = new PriorityQueue<RunCursor>(group.size());
+        try {
+            for(int i = 0; i < group.size(); i++){
+                RunCursor cursor = new RunCursor(group.get(i), i);
+                if(cursor.next()){
+                    heap.add(cursor);
+                }else{
+                    cursor.close();
+                }
+            }
+            while(!heap.isEmpty()){
+                RunCursor c = heap.poll();
+                if(handler != null){
+                    handler.handleEvent(c.date, authors.getString(c.authorId), paths.getString(c.pathId), c.weight);
+                }else{
+                    out.writeLong(c.date);
+                    out.writeInt(c.authorId);
+                    out.writeInt(c.pathId);
+                    out.writeInt(c.weight);
+                }
+                if(c.next()){
+                    heap.add(c);
+                }else{
+                    c.close();
+                }
+            }
+        } finally {
+            for(RunCursor c : heap){
+                c.close();
+            }
+            for(File run : group){
+                run.delete();
+            }
+        }
+    }
+
+    /**
+     * @return the indexes of the current run in stable date order
+     */
+    private int[] sortCurrentRun(){
+        int[] order = new int[count];
+        for(int i = 0; i < count; i++){
+            order[i] = i;
+        }
+        mergeSort(order, new int[count], 0, count);
+        return order;
+    }
+
+    private void mergeSort(int[] a, int[] tmp, int from, int to){
+        if(to - from < 16){
+            // insertion sort for short ranges
+            for(int i = from + 1; i < to; i++){
+                int v = a[i];
+                int j = i - 1;
+                while(j >= from && dates[a[j]] > dates[v]){
+                    a[j + 1] = a[j];
+                    j--;
+                }
+                a[j + 1] = v;
+            }
+            return;
+        }
+        int mid = (from + to) >>> 1;
+        mergeSort(a, tmp, from, mid);
+        mergeSort(a, tmp, mid, to);
+        if(dates[a[mid - 1]] <= dates[a[mid]]){
+            return;
+        }
+        System.arraycopy(a, from, tmp, from, to - from);
+        int i = from, j = mid, k = from;
+        while(i < mid && j < to){
+            a[k++] = dates[tmp[j]] < dates[tmp[i]] ? tmp[j++] : tmp[i++];
+        }
+        while(i < mid){
+            a[k++] = tmp[i++];
+        }
+        while(j < to){
+            a[k++] = tmp[j++];
+        }
+    }
+
+    /**
+     * reads the records of one run file sequentially.
+     */
+    private static class RunCursor implements Comparable<RunCursor> {
+        private final DataInputStream in;
+        private final int index;
+        long date;
+        int authorId;
+        int pathId;
+        int weight;
+
+        RunCursor(File run, int index) throws IOException{
+            this.in = new DataInputStream(new BufferedInputStream(new FileInputStream(run), BUFFER_SIZE));
+            this.index = index;
+        }
+
+        boolean next() throws IOException{
+            try {
+                date = in.readLong();
+            } catch (EOFException ex) {
+                return false;
+            }
+            authorId = in.readInt();
+            pathId = in.readInt();
+            weight = in.readInt();
+            return true;
+        }
+
+        void close() throws IOException{
+            in.close();
+        }
+
+        public int compareTo(RunCursor o){
+            if(date != o.date){
+                return date < o.date ? -1 : 1;
+            }
+            // earlier runs hold earlier input
+            return index - o.index;
+        }
+    }
+}
@@ -0,0 +1,66 @@
+/* This file is part of code_swarm.
+
+code_swarm is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+code_swarm is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with code_swarm.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.codeswarm.repositoryevents;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+
+/**
+ * Reads a Mercurial log written with the template of hg_log.py:
+ * <pre>
+ * hg log -v --template '{author|user}\n{date}\n{files}\n\n'
+ * </pre>
+ * That is four lines per changeset: the author, the date (seconds since the
+ * epoch, followed by a dot and the time zone), the changed files separated
+ * by spaces, and an empty line. Authors are lowercased, as convert_logs.py
+ * does.
+ */
+public class HgLogParser extends LogEventParser {
+
+    protected void parse(BufferedReader in, EventHandler handler) throws IOException{
+        String author;
+        while((author = in.readLine()) != null){
+            String date = in.readLine();
+            String files = in.readLine();
+            if(date == null || files == null){
+                skip(author);
+                break;
+            }
+            // the empty line ending the changeset
+            in.readLine();
+            long time;
+            try {
+                int dot = date.indexOf('.');
+                time = StaxEventParser.parseLong(dot < 0 ? date : date.substring(0, dot)) * 1000;
+            } catch (NumberFormatException ex) {
+                skip(date);
+                continue;
+            }
+            author = author.toLowerCase();
+            int start = 0;
+            while(start < files.length()){
+                int end = files.indexOf(' ', start);
+                if(end < 0){
+                    end = files.length();
+                }
+                if(end > start){
+                    event(handler, time, author, files.substring(start, end));
+                }
+                start = end + 1;
+            }
+        }
+    }
+}
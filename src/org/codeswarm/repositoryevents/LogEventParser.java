@@ -0,0 +1,202 @@
+/* This file is part of code_swarm.
+
+code_swarm is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+code_swarm is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with code_swarm.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.codeswarm.repositoryevents;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Reads the text log of a version control system (the formats handled by
+ * convert_logs.py) and passes every changed file on as an event, without an
+ * intermediate xml file.<br />
+ * The log is read line by line and only the current revision is kept, so
+ * logs of any size are converted in a single pass. Author and filename
+ * strings are deduplicated through {@link StringDictionary}s.<br />
+ * Events arrive in log order, which usually is not date order.
+ * @see #create(String)
+ */
+public abstract class LogEventParser {
+    private static final Logger LOGGER = Logger.getLogger(LogEventParser.class.getName());
+    private StringDictionary authors = new StringDictionary();
+    private StringDictionary paths = new StringDictionary();
+    private String charset = "UTF-8";
+    private long skipped;
+
+    /**
+     * @param format "svn" (<code>svn log -v</code>), "cvs"
+     *          (<code>cvs log</code>) or "hg" (the template of hg_log.py)
+     * @return a parser for the format
+     * @throws IllegalArgumentException for an unknown format
+     */
+    public static LogEventParser create(String format){
+        if("svn".equalsIgnoreCase(format)){
+            return new SvnLogParser();
+        }else if("cvs".equalsIgnoreCase(format)){
+            return new CvsLogParser();
+        }else if("hg".equalsIgnoreCase(format) || "mercurial".equalsIgnoreCase(format)){
+            return new HgLogParser();
+        }
+        throw new IllegalArgumentException("unknown log format: " + format);
+    }
+    /**
+     * @param format the name of an input format
+     * @return true if {@link #create(String)} knows the format
+     */
+    public static boolean isLogFormat(String format){
+        try {
+            create(format);
+            return true;
+        } catch (IllegalArgumentException ex) {
+            return false;
+        }
+    }
+
+    /**
+     * makes the parser intern into the given dictionaries.
+     * @param authors the author dictionary
+     * @param paths the path dictionary
+     */
+    public void setDictionaries(StringDictionary authors, StringDictionary paths){
+        this.authors = authors;
+        this.paths = paths;
+    }
+    /**
+     * @param charset the encoding of the log, UTF-8 by default
+     */
+    public void setCharset(String charset){
+        this.charset = charset;
+    }
+    /**
+     * @return the number of revisions skipped because they could not be
+     *          parsed
+     */
+    public long getSkippedCount(){
+        return skipped;
+    }
+
+    /**
+     * parses a log file, which may be block-compressed.
+     * @param filename the path of the log file
+     * @param handler receives the events in log order
+     * @throws java.io.IOException when the file cannot be read
+     */
+    public void parse(String filename, EventHandler handler) throws IOException{
+        InputStream in = BlockCompressedInputStream.open(new File(filename));
+        try {
+            parse(in, handler);
+        } finally {
+            in.close();
+        }
+    }
+    /**
+     * parses a log.
+     * @param in the log
+     * @param handler receives the events in log order
+     * @throws java.io.IOException when the stream cannot be read
+     */
+    public void parse(InputStream in, EventHandler handler) throws IOException{
+        skipped = 0;
+        parse(new BufferedReader(new InputStreamReader(in, charset), 1 << 16), handler);
+        if(skipped > 0){
+            LOGGER.log(Level.WARNING, "skipped {0} malformed revisions", String.valueOf(skipped));
+        }
+    }
+
+    /**
+     * reads the log and passes every changed file on to the handler.
+     * @param in the log, line by line
+     * @param handler receives the events
+     * @throws java.io.IOException when the log cannot be read
+     */
+    protected abstract void parse(BufferedReader in, EventHandler handler) throws IOException;
+
+    /**
+     * passes an event on, interning author and filename.
+     */
+    protected void event(EventHandler handler, long date, String author, String filename){
+        handler.handleEvent(date, authors.intern(author), paths.intern(filename), 1);
+    }
+    /**
+     * counts a revision that could not be parsed.
+     */
+    protected void skip(String line){
+        skipped++;
+        LOGGER.log(Level.FINE, "skipping malformed revision: {0}", line);
+    }
+
+    /**
+     * parses a date like "2008-06-19 10:23:25 -0500" or "2008/06/19 10:23:25"
+     * without going through a DateFormat. A date without time zone offset is
+     * taken as UTC, which is what cvs writes.
+     * @param s the text holding the date
+     * @param from the index the date starts at
+     * @return the date in milliseconds since the epoch
+     * @throws NumberFormatException when the text is not such a date
+     */
+    static long parseDate(String s, int from){
+        if(s.length() < from + 19){
+            throw new NumberFormatException("not a date: \"" + s + "\"");
+        }
+        int year = digits(s, from, 4);
+        int month = digits(s, from + 5, 2);
+        int day = digits(s, from + 8, 2);
+        int hour = digits(s, from + 11, 2);
+        int minute = digits(s, from + 14, 2);
+        int second = digits(s, from + 17, 2);
+        long seconds = daysFromCivil(year, month, day) * 86400L + hour * 3600 + minute * 60 + second;
+        int i = from + 19;
+        while(i < s.length() && s.charAt(i) == ' '){
+            i++;
+        }
+        if(i + 5 <= s.length() && (s.charAt(i) == '+' || s.charAt(i) == '-')){
+            int offset = digits(s, i + 1, 2) * 3600 + digits(s, i + 3, 2) * 60;
+            seconds -= s.charAt(i) == '+' ? offset : -offset;
+        }
+        return seconds * 1000;
+    }
+
+    private static int digits(String s, int from, int count){
+        int n = 0;
+        for(int i = from; i < from + count; i++){
+            int digit = s.charAt(i) - '0';
+            if(digit < 0 || digit > 9){
+                throw new NumberFormatException("not a date: \"" + s + "\"");
+            }
+            n = n * 10 + digit;
+        }
+        return n;
+    }
+
+    /**
+     * @return the number of days from 1970-01-01 to the given date
+     */
+    private static long daysFromCivil(int year, int month, int day){
+        if(month < 1 || month > 12 || day < 1 || day > 31){
+            throw new NumberFormatException("not a date: " + year + "-" + month + "-" + day);
+        }
+        int y = month <= 2 ? year - 1 : year;
+        int era = (y >= 0 ? y : y - 399) / 400;
+        int yearOfEra = y - era * 400;
+        int dayOfYear = (153 * (month > 2 ? month - 3 : month + 9) + 2) / 5 + day - 1;
+        int dayOfEra = yearOfEra * 365 + yearOfEra / 4 - yearOfEra / 100 + dayOfYear;
+        return era * 146097L + dayOfEra - 719468;
+    }
+}
@@ -0,0 +1,242 @@
+/* This file is part of code_swarm.
+
+code_swarm is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+code_swarm is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with code_swarm.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.codeswarm.repositoryevents;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.io.SequenceInputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.LinkedList;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Parses one large file_events xml-file on several threads.<br />
+ * The file is cut into chunks at <code>&lt;event</code> tags. Each chunk is
+ * wrapped into its own file_events document and parsed by a
+ * {@link StaxEventParser} on a worker thread. The parsed chunks are handed
+ * to the handler in file order, so the output is exactly what a single
+ * parser would produce. Only a few chunks per thread are in flight at once,
+ * which bounds the memory used.
+ */
+public class ParallelEventParser {
+    /** Default size of a chunk in bytes */
+    public static final int DEFAULT_CHUNK_SIZE = 4 << 20;
+    private static final byte[] EVENT_TAG = {'<', 'e', 'v', 'e', 'n', 't'};
+    private static final byte[] END_TAG = {'<', '/', 'f', 'i', 'l', 'e', '_', 'e', 'v', 'e', 'n', 't', 's', '>'};
+    private static final int SCAN_BLOCK = 1 << 16;
+
+    private final int threads;
+    private final int chunkSize;
+
+    /**
+     * creates a parser.
+     * @param threads the number of worker threads
+     * @param chunkSize the approximate number of bytes per chunk
+     */
+    public ParallelEventParser(int threads, int chunkSize){
+        this.threads = Math.max(threads, 1);
+        this.chunkSize = Math.max(chunkSize, SCAN_BLOCK);
+    }
+    /**
+     * parses a whole file.
+     * @param file the xml event file
+     * @param handler receives the events in file order
+     * @throws java.io.IOException when the file cannot be read or is malformed
+     */
+    public void parse(File file, EventHandler handler) throws IOException{
+        parse(file, 0, handler);
+    }
+    /**
+     * parses a file from an offset, e.g. one returned by
+     * {@link EventFileIndex#getOffset(long)}.
+     * @param file the xml event file
+     * @param offset the byte offset to start at
+     * @param handler receives the events in file order
+     * @throws java.io.IOException when the file cannot be read or is malformed
+     */
+    public void parse(File file, long offset, EventHandler handler) throws IOException{
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        ExecutorService workers = Executors.newFixedThreadPool(threads, new ThreadFactory(){
+            public Thread newThread(Runnable r){
+                Thread t = new Thread(r, "code_swarm parser");
+                t.setDaemon(true);
+                return t;
+            }
+        });
+        try {
+            final FileChannel channel = raf.getChannel();
+            long end = findEnd(channel);
+            long start = findEventTag(channel, offset, end);
+            LinkedList<Future<Chunk>> inFlight = new LinkedList<Future<Chunk>>();
+            while(start < end || !inFlight.isEmpty()){
+                while(start < end && inFlight.size() < threads * 2){
+                    long next = findEventTag(channel, Math.min(start + chunkSize, end), end);
+                    final long from = start;
+                    final long to = next;
+                    inFlight.add(workers.submit(new Callable<Chunk>(){
+                        public Chunk call() throws Exception{
+                            return parseChunk(channel, from, to);
+                        }
+                    }));
+                    start = next;
+                }
+                inFlight.removeFirst().get().emit(handler);
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new IOException("interrupted while parsing " + file);
+        } catch (ExecutionException ex) {
+            IOException io = new IOException("could not parse " + file + ": " + ex.getCause());
+            io.initCause(ex.getCause());
+            throw io;
+        } finally {
+            workers.shutdownNow();
+            raf.close();
+        }
+    }
+
+    private static Chunk parseChunk(FileChannel channel, long from, long to) throws Exception{
+        byte[] bytes = new byte[(int)(to - from)];
+        ByteBuffer buffer = ByteBuffer.wrap(bytes);
+        while(buffer.hasRemaining()){
+            if(channel.read(buffer, from + buffer.position()) < 0){
+                throw new IOException("unexpected end of file");
+            }
+        }
+        InputStream in = new SequenceInputStream(
+                new ByteArrayInputStream("<file_events>".getBytes("UTF-8")),
+                new SequenceInputStream(new ByteArrayInputStream(bytes),
+                    new ByteArrayInputStream("</file_events>".getBytes("UTF-8"))));
+        Chunk chunk = new Chunk(Math.max(bytes.length / 100, 16));
+        new StaxEventParser().parse(in, chunk);
+        return chunk;
+    }
+
+    /**
+     * @return the offset of the closing file_events tag, or the file length
+     *          if there is none
+     */
+    private static long findEnd(FileChannel channel) throws IOException{
+        long size = channel.size();
+        int n = (int)Math.min(size, SCAN_BLOCK);
+        ByteBuffer tail = ByteBuffer.allocate(n);
+        while(tail.hasRemaining() && channel.read(tail, size - n + tail.position()) > 0){
+            // keep reading
+        }
+        byte[] bytes = tail.array();
+        for(int k = n - END_TAG.length; k >= 0; k--){
+            if(matches(bytes, k, END_TAG)){
+                return size - n + k;
+            }
+        }
+        return size;
+    }
+
+    /**
+     * @return the offset of the first event tag at or after from, or limit
+     */
+    private static long findEventTag(FileChannel channel, long from, long limit) throws IOException{
+        ByteBuffer block = ByteBuffer.allocate(SCAN_BLOCK);
+        byte[] bytes = block.array();
+        long pos = from;
+        while(pos < limit){
+            block.clear();
+            int n = channel.read(block, pos);
+            if(n <= EVENT_TAG.length){
+                break;
+            }
+            for(int k = 0; k + EVENT_TAG.length < n; k++){
+                if(matches(bytes, k, EVENT_TAG)){
+                    byte next = bytes[k + EVENT_TAG.length];
+                    if(next == ' ' || next == '\t' || next == '\n' || next == '\r' || next == '/' || next == '>'){
+                        return Math.min(pos + k, limit);
+                    }
+                }
+            }
+            if(pos + n >= limit){
+                break;
+            }
+            // overlap, so a tag across the block border is found
+            pos += n - EVENT_TAG.length;
+        }
+        return limit;
+    }
+
+    private static boolean matches(byte[] bytes, int at, byte[] tag){
+        for(int k = 0; k < tag.length; k++){
+            if(bytes[at + k] != tag[k]){
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * the events of one chunk, kept until it is their turn.
+     */
+    private static class Chunk implements EventHandler {
+        private long[] dates;
+        private String[] authors;
+        private String[] paths;
+        private int[] weights;
+        private int count;
+
+        Chunk(int capacity){
+            dates = new long[capacity];
+            authors = new String[capacity];
+            paths = new String[capacity];
+            weights = new int[capacity];
+        }
+
+        public void handleEvent(long date, String author, String filename, int weight){
+            if(count == dates.length){
+                int grown = count * 2;
+                long[] d = new long[grown];
+                String[] a = new String[grown];
+                String[] p = new String[grown];
+                int[] w = new int[grown];
+                System.arraycopy(dates, 0, d, 0, count);
+                System.arraycopy(authors, 0, a, 0, count);
+                System.arraycopy(paths, 0, p, 0, count);
+                System.arraycopy(weights, 0, w, 0, count);
+                dates = d;
+                authors = a;
+                paths = p;
+                weights = w;
+            }
+            dates[count] = date;
+            authors[count] = author;
+            paths[count] = filename;
+            weights[count] = weight;
+            count++;
+        }
+
+        void emit(EventHandler handler){
+            for(int i = 0; i < count; i++){
+                handler.handleEvent(dates[i], authors[i], paths[i], weights[i]);
+            }
+        }
+    }
+}
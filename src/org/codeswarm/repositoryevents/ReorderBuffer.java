@@ -0,0 +1,139 @@
+/* This file is part of code_swarm.
+
+code_swarm is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+code_swarm is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with code_swarm.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.codeswarm.repositoryevents;
+
+import java.io.Flushable;
+import java.io.IOException;
+import java.util.PriorityQueue;
+
+/**
+ * Sorts a nearly sorted event stream through a small window.<br />
+ * Events are held in a heap until they are out of the window: either more
+ * than <code>maxEvents</code> events are pending, or the event is more than
+ * <code>maxMillis</code> older than the latest date seen. The earliest
+ * pending event is then passed on, so the output is sorted.<br />
+ * An event that arrives after a later event was already passed on is
+ * outside the window. It is passed on with the date of the last event
+ * passed on, to keep the output sorted, and counted as late.<br />
+ * A flush passes on all pending events, as the input has nothing more to
+ * give for now (e.g. a followed file that was read to its end), and is
+ * passed on if the downstream handler is {@link Flushable}.
+ */
+public class ReorderBuffer implements EventHandler, Flushable {
+    private final EventHandler handler;
+    private final int maxEvents;
+    private final long maxMillis;
+    private final PriorityQueue<Pending> heap = new PriorityQueue<Pending>();
+    private long sequence;
+    private long latestDate = Long.MIN_VALUE;
+    private long lastEmitted = Long.MIN_VALUE;
+    private long lateCount;
+    private long maxLateness;
+
+    /**
+     * creates a buffer. At least one of the limits should be positive.
+     * @param handler receives the events in date order
+     * @param maxEvents the number of events held back, or 0 for no limit
+     * @param maxMillis how far (in milliseconds) an event may lag behind the
+     *          latest date seen, or 0 for no limit
+     */
+    public ReorderBuffer(EventHandler handler, int maxEvents, long maxMillis){
+        this.handler = handler;
+        this.maxEvents = maxEvents;
+        this.maxMillis = maxMillis;
+    }
+
+    public void handleEvent(long date, String author, String filename, int weight){
+        if(date < lastEmitted){
+            lateCount++;
+            maxLateness = Math.max(maxLateness, lastEmitted - date);
+            handler.handleEvent(lastEmitted, author, filename, weight);
+            return;
+        }
+        heap.add(new Pending(date, sequence++, author, filename, weight));
+        latestDate = Math.max(latestDate, date);
+        while(!heap.isEmpty() && isOutOfWindow(heap.peek())){
+            emit(heap.poll());
+        }
+    }
+    /**
+     * passes on all pending events. Call at the end of the stream.
+     */
+    public void finish(){
+        while(!heap.isEmpty()){
+            emit(heap.poll());
+        }
+    }
+    /**
+     * passes on all pending events and flushes the downstream handler.
+     * Events older than these that arrive later count as late.
+     * @throws java.io.IOException when the downstream handler fails to flush
+     */
+    public void flush() throws IOException{
+        finish();
+        if(handler instanceof Flushable){
+            ((Flushable)handler).flush();
+        }
+    }
+    /**
+     * @return the number of events that arrived too late for the window
+     */
+    public long getLateCount(){
+        return lateCount;
+    }
+    /**
+     * @return how far (in milliseconds) the latest event was behind the
+     *          events already passed on
+     */
+    public long getMaxLateness(){
+        return maxLateness;
+    }
+
+    private boolean isOutOfWindow(Pending p){
+        if(maxEvents > 0 && heap.size() > maxEvents){
+            return true;
+        }
+        return maxMillis > 0 && p.date < latestDate - maxMillis;
+    }
+
+    private void emit(Pending p){
+        lastEmitted = p.date;
+        handler.handleEvent(p.date, p.author, p.filename, p.weight);
+    }
+
+    private static class Pending implements Comparable<Pending> {
+        final long date;
+        final long sequence;
+        final String author;
+        final String filename;
+        final int weight;
+
+        Pending(long date, long sequence, String author, String filename, int weight){
+            this.date = date;
+            this.sequence = sequence;
+            this.author = author;
+            this.filename = filename;
+            this.weight = weight;
+        }
+
+        public int compareTo(Pending o){
+            if(date != o.date){
+                return date < o.date ? -1 : 1;
+            }
+            return sequence < o.sequence ? -1 : (sequence == o.sequence ? 0 : 1);
+        }
+    }
+}
@@ -0,0 +1,156 @@
+/* This file is part of code_swarm.
+
+code_swarm is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+code_swarm is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with code_swarm.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.codeswarm.repositoryevents;
+
+import java.io.BufferedInputStream;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+/**
+ * Pull-parses a file_events xml-file with StAX.<br />
+ * Author and filename strings are deduplicated through
+ * {@link StringDictionary}s, so an event stream that touches a few thousand
+ * authors and paths keeps only one String per author and path alive, no
+ * matter how many events reference them.
+ */
+public class StaxEventParser {
+    private final StringDictionary authors;
+    private final StringDictionary paths;
+
+    /**
+     * creates a parser with its own dictionaries.
+     */
+    public StaxEventParser(){
+        this(new StringDictionary(), new StringDictionary());
+    }
+    /**
+     * creates a parser that interns into the given dictionaries.
+     * @param authors the author dictionary
+     * @param paths the path dictionary
+     */
+    public StaxEventParser(StringDictionary authors, StringDictionary paths){
+        this.authors = authors;
+        this.paths = paths;
+    }
+    /**
+     * @return the dictionary the author strings are interned into
+     */
+    public StringDictionary getAuthors(){
+        return authors;
+    }
+    /**
+     * @return the dictionary the filename strings are interned into
+     */
+    public StringDictionary getPaths(){
+        return paths;
+    }
+    /**
+     * parses a file and passes every event to the handler.
+     * @param filename the path of the xml file
+     * @param handler receives the events in document order
+     * @throws javax.xml.stream.XMLStreamException when the file is malformed
+     * @throws java.io.IOException when the file cannot be read
+     */
+    public void parse(String filename, EventHandler handler) throws XMLStreamException, IOException{
+        InputStream in = new BufferedInputStream(new FileInputStream(filename), 1 << 16);
+        try {
+            parse(in, handler);
+        } finally {
+            in.close();
+        }
+    }
+    /**
+     * parses a stream and passes every event to the handler.
+     * @param in the xml stream
+     * @param handler receives the events in document order
+     * @throws javax.xml.stream.XMLStreamException when the stream is malformed
+     */
+    public void parse(InputStream in, EventHandler handler) throws XMLStreamException{
+        XMLInputFactory factory = XMLInputFactory.newInstance();
+        factory.setProperty(XMLInputFactory.IS_COALESCING, Boolean.FALSE);
+        factory.setProperty(XMLInputFactory.SUPPORT_DTD, Boolean.FALSE);
+        XMLStreamReader reader = factory.createXMLStreamReader(in);
+        try {
+            while(reader.hasNext()){
+                if(reader.next() == XMLStreamConstants.START_ELEMENT
+                        && "event".equals(reader.getLocalName())){
+                    handleEvent(reader, handler);
+                }
+            }
+        } finally {
+            reader.close();
+        }
+    }
+
+    private void handleEvent(XMLStreamReader reader, EventHandler handler){
+        String filename = null;
+        String author = null;
+        long date = 0;
+        int weight = 1;
+        // a single pass over the attributes instead of one lookup by name each
+        for(int i = 0, n = reader.getAttributeCount(); i < n; i++){
+            String name = reader.getAttributeLocalName(i);
+            if("date".equals(name)){
+                date = parseLong(reader.getAttributeValue(i));
+            }else if("author".equals(name)){
+                author = authors.intern(reader.getAttributeValue(i));
+            }else if("filename".equals(name)){
+                filename = paths.intern(reader.getAttributeValue(i));
+            }else if("weight".equals(name)){
+                weight = (int)parseLong(reader.getAttributeValue(i));
+            }
+        }
+        handler.handleEvent(date, author, filename, weight);
+    }
+
+    /**
+     * parses a decimal number directly from its characters.
+     * Unlike Long.parseLong it tolerates surrounding whitespace.
+     * @param s the characters to parse
+     * @return the number
+     */
+    static long parseLong(CharSequence s){
+        int i = 0;
+        int end = s.length();
+        while(i < end && s.charAt(i) <= ' '){
+            i++;
+        }
+        while(end > i && s.charAt(end - 1) <= ' '){
+            end--;
+        }
+        boolean negative = i < end && s.charAt(i) == '-';
+        if(negative){
+            i++;
+        }
+        if(i == end){
+            throw new NumberFormatException("no digits in \"" + s + "\"");
+        }
+        long value = 0;
+        for(; i < end; i++){
+            int digit = s.charAt(i) - '0';
+            if(digit < 0 || digit > 9){
+                throw new NumberFormatException("not a number: \"" + s + "\"");
+            }
+            value = value * 10 + digit;
+        }
+        return negative ? -value : value;
+    }
+}
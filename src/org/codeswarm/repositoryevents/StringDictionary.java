@@ -0,0 +1,84 @@
+/* This file is part of code_swarm.
+
+code_swarm is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+code_swarm is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with code_swarm.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.codeswarm.repositoryevents;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Maps strings (authors, paths) to dense integer ids and back.<br />
+ * Every distinct string is stored exactly once, so it doubles as an
+ * intern table for the event loaders.
+ */
+public class StringDictionary {
+    private final Map<String, Integer> ids = new HashMap<String, Integer>();
+    private String[] strings;
+    private int size;
+
+    /**
+     * creates an empty dictionary.
+     */
+    public StringDictionary(){
+        this(64);
+    }
+    /**
+     * creates an empty dictionary.
+     * @param initialCapacity the number of strings to reserve room for
+     */
+    public StringDictionary(int initialCapacity){
+        strings = new String[Math.max(initialCapacity, 1)];
+    }
+    /**
+     * looks up the id of a string, adding it to the dictionary if necessary.
+     * @param s the string to look up (not null)
+     * @return the dense id of the string (0 for the first string added)
+     */
+    public synchronized int getId(String s){
+        Integer id = ids.get(s);
+        if(id != null){
+            return id.intValue();
+        }
+        if(size == strings.length){
+            String[] grown = new String[size * 2];
+            System.arraycopy(strings, 0, grown, 0, size);
+            strings = grown;
+        }
+        strings[size] = s;
+        ids.put(s, Integer.valueOf(size));
+        return size++;
+    }
+    /**
+     * @param id an id handed out by {@link #getId(String)}
+     * @return the string stored for the id
+     */
+    public synchronized String getString(int id){
+        return strings[id];
+    }
+    /**
+     * @param s the string to intern
+     * @return the instance of s held by this dictionary
+     */
+    public synchronized String intern(String s){
+        int id = getId(s);
+        return strings[id];
+    }
+    /**
+     * @return the number of distinct strings in the dictionary
+     */
+    public synchronized int size(){
+        return size;
+    }
+}
@@ -0,0 +1,101 @@
+/* This file is part of code_swarm.
+
+code_swarm is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+code_swarm is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with code_swarm.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.codeswarm.repositoryevents;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+
+/**
+ * Reads the output of <code>svn log -v</code>:
+ * <pre>
+ * ------------------------------------------------------------------------
+ * r9 | michael.ogawa | 2008-06-19 10:23:25 -0500 (Thu, 19 Jun 2008) | 3 lines
+ * Changed paths:
+ *    M /trunk/src/code_swarm.java
+ *    A /trunk/data (from /branches/data:8)
+ *
+ * the log message, 3 lines long
+ * </pre>
+ * Revisions without changed paths (a log without -v) are skipped. The line
+ * count is used to skip the message, so messages may contain anything.
+ */
+public class SvnLogParser extends LogEventParser {
+    static final String SEPARATOR = "------------------------------------------------------------------------";
+
+    protected void parse(BufferedReader in, EventHandler handler) throws IOException{
+        String line = in.readLine();
+        while(line != null){
+            if(!line.startsWith(SEPARATOR)){
+                line = in.readLine();
+                continue;
+            }
+            String header = in.readLine();
+            if(header == null){
+                break;
+            }
+            String[] parts = header.split(" \\| ");
+            long date = 0;
+            boolean valid = parts.length >= 4;
+            if(valid){
+                try {
+                    date = parseDate(parts[2], 0);
+                } catch (NumberFormatException ex) {
+                    valid = false;
+                }
+            }
+            if(!valid){
+                skip(header);
+                line = in.readLine();
+                continue;
+            }
+            line = in.readLine();
+            if(line == null || !line.regionMatches(true, 0, "Changed paths:", 0, 14)){
+                continue;
+            }
+            while((line = in.readLine()) != null && line.length() > 0){
+                // "   M /path" or "   A /path (from /other:12)"
+                if(line.length() <= 5){
+                    continue;
+                }
+                int from = line.indexOf(" (from ", 5);
+                event(handler, date, parts[1], from < 0 ? line.substring(5) : line.substring(5, from));
+            }
+            int lines = messageLines(parts[3]);
+            for(int i = 0; i < lines && line != null; i++){
+                line = in.readLine();
+            }
+            if(line != null){
+                line = in.readLine();
+            }
+        }
+    }
+
+    /**
+     * @param count "3 lines" or "1 line"
+     * @return the number of message lines, 0 if unknown
+     */
+    private static int messageLines(String count){
+        int n = 0;
+        for(int i = 0; i < count.length(); i++){
+            char c = count.charAt(i);
+            if(c < '0' || c > '9'){
+                break;
+            }
+            n = n * 10 + (c - '0');
+        }
+        return n;
+    }
+}
@@ -0,0 +1,358 @@
+/* This file is part of code_swarm.
+
+code_swarm is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+code_swarm is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with code_swarm.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.codeswarm.repositoryevents;
+
+import java.io.File;
+import java.io.Flushable;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UnsupportedEncodingException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Follows a growing file_events xml-file, like <code>tail -f</code>.<br />
+ * Every byte of the file is read exactly once: complete
+ * <code>&lt;event .../&gt;</code> elements are passed to the handler as soon
+ * as they are written, and an element that is only partly written is kept
+ * until the rest arrives. The file does not need a closing
+ * <code>&lt;/file_events&gt;</code> tag.<br />
+ * Whenever the reader has caught up with the end of the file, it flushes the
+ * handler if the handler is {@link Flushable}; the first time even if there
+ * was nothing to read or no file yet. If the file shrinks, it is taken to
+ * be a new file and read from the start.<br />
+ * An event with a malformed number or character reference is logged and
+ * skipped, so a bad line in the file doesn't stop the reader.
+ */
+public class TailingEventReader {
+    private static final Logger LOGGER = Logger.getLogger(TailingEventReader.class.getName());
+    private static final byte[] EVENT_TAG = {'<', 'e', 'v', 'e', 'n', 't'};
+
+    private final File file;
+    private final long pollMillis;
+    private final StringDictionary authors = new StringDictionary();
+    private final StringDictionary paths = new StringDictionary();
+    private volatile boolean stopped = false;
+
+    private byte[] buffer = new byte[1 << 16];
+    private int length;
+    private long position;
+    private long skippedCount;
+
+    /**
+     * creates a reader.
+     * @param file the file to follow
+     * @param pollMillis how long to wait for new data once the end of the
+     *          file is reached
+     */
+    public TailingEventReader(File file, long pollMillis){
+        this.file = file;
+        this.pollMillis = pollMillis;
+    }
+    /**
+     * makes {@link #follow} return after its current poll.
+     */
+    public void stop(){
+        stopped = true;
+    }
+    /**
+     * @return the number of bytes of the file read so far
+     */
+    public long getPosition(){
+        return position;
+    }
+    /**
+     * @return the number of events skipped because a number or character
+     *          reference in them was malformed
+     */
+    public long getSkippedCount(){
+        return skippedCount;
+    }
+    /**
+     * reads the file and everything appended to it until {@link #stop()} is
+     * called or the thread is interrupted.
+     * @param handler receives the events in file order
+     * @throws java.io.IOException when the file cannot be read
+     */
+    public void follow(EventHandler handler) throws IOException{
+        // the first flush tells that the file was read up to its end once
+        boolean flushed = false;
+        while(!stopped){
+            if(!file.exists()){
+                if(!flushed && handler instanceof Flushable){
+                    ((Flushable)handler).flush();
+                }
+                flushed = true;
+                if(!pause()){
+                    return;
+                }
+                continue;
+            }
+            RandomAccessFile in = new RandomAccessFile(file, "r");
+            try {
+                long size = in.length();
+                if(size < position){
+                    // truncated or replaced, start over
+                    position = 0;
+                    length = 0;
+                }
+                if(size > position){
+                    if(length == buffer.length){
+                        byte[] grown = new byte[buffer.length * 2];
+                        System.arraycopy(buffer, 0, grown, 0, length);
+                        buffer = grown;
+                    }
+                    in.seek(position);
+                    int n = in.read(buffer, length, buffer.length - length);
+                    if(n > 0){
+                        position += n;
+                        length += n;
+                        consume(handler);
+                        flushed = false;
+                    }
+                    continue;
+                }
+            } finally {
+                in.close();
+            }
+            if(!flushed && handler instanceof Flushable){
+                ((Flushable)handler).flush();
+            }
+            flushed = true;
+            if(!pause()){
+                return;
+            }
+        }
+    }
+
+    private boolean pause(){
+        try {
+            Thread.sleep(pollMillis);
+            return true;
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    /**
+     * passes all complete events in the buffer to the handler and keeps the
+     * incomplete rest.
+     */
+    private void consume(EventHandler handler){
+        int i = 0;
+        while(true){
+            int lt = indexOf((byte)'<', i);
+            if(lt < 0){
+                i = length;
+                break;
+            }
+            int end = isEventTag(lt) ? parseEvent(lt, handler) : skipMarkup(lt);
+            if(end < 0){
+                // incomplete, wait for more data
+                i = lt;
+                break;
+            }
+            i = end;
+        }
+        System.arraycopy(buffer, i, buffer, 0, length - i);
+        length -= i;
+    }
+
+    private boolean isEventTag(int lt){
+        if(lt + EVENT_TAG.length >= length){
+            // can't tell yet; parseEvent will report it as incomplete
+            return startsWith(lt, EVENT_TAG);
+        }
+        byte next = buffer[lt + EVENT_TAG.length];
+        return startsWith(lt, EVENT_TAG) && (isSpace(next) || next == '/' || next == '>');
+    }
+
+    private static boolean isSpace(byte b){
+        return b == ' ' || b == '\t' || b == '\n' || b == '\r';
+    }
+
+    private boolean startsWith(int at, byte[] prefix){
+        for(int k = 0; k < prefix.length && at + k < length; k++){
+            if(buffer[at + k] != prefix[k]){
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private int indexOf(byte b, int from){
+        for(int k = from; k < length; k++){
+            if(buffer[k] == b){
+                return k;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * skips a comment, processing instruction or other tag.
+     * @return the index after it, or -1 if it is incomplete
+     */
+    private int skipMarkup(int lt){
+        if(lt + 4 > length){
+            return -1;
+        }
+        if(buffer[lt + 1] == '!' && buffer[lt + 2] == '-' && buffer[lt + 3] == '-'){
+            for(int k = lt + 4; k + 2 < length; k++){
+                if(buffer[k] == '-' && buffer[k + 1] == '-' && buffer[k + 2] == '>'){
+                    return k + 3;
+                }
+            }
+            return -1;
+        }
+        int gt = indexOf((byte)'>', lt);
+        return gt < 0 ? -1 : gt + 1;
+    }
+
+    /**
+     * parses the attributes of an event start tag.
+     * @return the index after the tag, or -1 if it is incomplete
+     */
+    private int parseEvent(int lt, EventHandler handler){
+        String filename = null;
+        String author = null;
+        long date = 0;
+        int weight = 1;
+        String malformed = null;
+        int k = lt + EVENT_TAG.length;
+        while(true){
+            while(k < length && isSpace(buffer[k])){
+                k++;
+            }
+            if(k >= length){
+                return -1;
+            }
+            if(buffer[k] == '>'){
+                k++;
+                break;
+            }
+            if(buffer[k] == '/'){
+                if(k + 1 >= length){
+                    return -1;
+                }
+                k += 2;
+                break;
+            }
+            int nameStart = k;
+            while(k < length && buffer[k] != '=' && !isSpace(buffer[k])){
+                k++;
+            }
+            int nameEnd = k;
+            while(k < length && buffer[k] != '\'' && buffer[k] != '"'){
+                k++;
+            }
+            if(k >= length){
+                return -1;
+            }
+            byte quote = buffer[k++];
+            int valueStart = k;
+            while(k < length && buffer[k] != quote){
+                k++;
+            }
+            if(k >= length){
+                return -1;
+            }
+            try {
+                String value = decode(valueStart, k);
+                if(matches(nameStart, nameEnd, "date")){
+                    date = StaxEventParser.parseLong(value);
+                }else if(matches(nameStart, nameEnd, "author")){
+                    author = authors.intern(value);
+                }else if(matches(nameStart, nameEnd, "filename")){
+                    filename = paths.intern(value);
+                }else if(matches(nameStart, nameEnd, "weight")){
+                    weight = (int)StaxEventParser.parseLong(value);
+                }
+            } catch (IllegalArgumentException ex) {
+                // a malformed number or character reference; the rest of the tag is still read
+                malformed = ex.getMessage();
+            }
+            k++;
+        }
+        if(malformed != null){
+            skippedCount++;
+            LOGGER.log(Level.WARNING, "skipping a malformed event in {0}: {1}", new Object[]{file, malformed});
+            return k;
+        }
+        handler.handleEvent(date, author, filename, weight);
+        return k;
+    }
+
+    private boolean matches(int start, int end, String name){
+        if(end - start != name.length()){
+            return false;
+        }
+        for(int k = 0; k < name.length(); k++){
+            if(buffer[start + k] != name.charAt(k)){
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * decodes an utf-8 attribute value and resolves its entity references.
+     */
+    private String decode(int start, int end){
+        String raw;
+        try {
+            raw = new String(buffer, start, end - start, "UTF-8");
+        } catch (UnsupportedEncodingException ex) {
+            throw new IllegalStateException(ex);
+        }
+        int amp = raw.indexOf('&');
+        if(amp < 0){
+            return raw;
+        }
+        StringBuilder sb = new StringBuilder(raw.length());
+        int from = 0;
+        while(amp >= 0){
+            int semi = raw.indexOf(';', amp);
+            if(semi < 0){
+                break;
+            }
+            sb.append(raw, from, amp);
+            String entity = raw.substring(amp + 1, semi);
+            if(entity.equals("amp")){
+                sb.append('&');
+            }else if(entity.equals("lt")){
+                sb.append('<');
+            }else if(entity.equals("gt")){
+                sb.append('>');
+            }else if(entity.equals("quot")){
+                sb.append('"');
+            }else if(entity.equals("apos")){
+                sb.append('\'');
+            }else if(entity.startsWith("#x")){
+                sb.appendCodePoint(Integer.parseInt(entity.substring(2), 16));
+            }else if(entity.startsWith("#")){
+                sb.appendCodePoint(Integer.parseInt(entity.substring(1)));
+            }else{
+                sb.append('&').append(entity).append(';');
+            }
+            from = semi + 1;
+            amp = raw.indexOf('&', from);
+        }
+        sb.append(raw, from, raw.length());
+        return sb.toString();
+    }
+}
@@ -0,0 +1,267 @@
+/* This file is part of code_swarm.
+
+code_swarm is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+code_swarm is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with code_swarm.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.codeswarm.repositoryevents;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * A local cache for the weights of changes (the lines changed per path),
+ * keyed by repository, revision and path, so they are computed only once.<br />
+ * Every repository has a file of its own, named by the SHA-1 of its url,
+ * to which the weights of a revision are appended as one record. Only the
+ * offsets of the records are held in memory; a record is read when its
+ * revision is looked up. A record cut off by a crash is dropped when the
+ * file is opened.
+ */
+public class WeightCache {
+    private static final Logger LOGGER = Logger.getLogger(WeightCache.class.getName());
+    private static final int MAGIC = 0x43535743; // "CSWC"
+    private static final int VERSION = 1;
+    private static final String SUFFIX = ".weights";
+
+    private final File directory;
+    private final Map<String, RepositoryFile> repositories = new HashMap<String, RepositoryFile>();
+
+    /**
+     * opens a cache, creating its directory if needed.
+     * @param directory the directory holding the weight files
+     * @throws java.io.IOException when the directory cannot be created
+     */
+    public WeightCache(File directory) throws IOException{
+        this.directory = directory;
+        if(!directory.isDirectory() && !directory.mkdirs()){
+            throw new IOException("cannot create " + directory);
+        }
+    }
+    /**
+     * @return the directory of the cache
+     */
+    public File getDirectory(){
+        return directory;
+    }
+    /**
+     * looks up the weights of a revision.
+     * @param url the repository url
+     * @param revision the revision
+     * @return the weight of every path changed in the revision, or null if
+     *          the revision is not cached
+     * @throws java.io.IOException when the cache cannot be read
+     */
+    public synchronized Map<String, Integer> get(String url, String revision) throws IOException{
+        return open(url).get(revision);
+    }
+    /**
+     * stores the weights of a revision.
+     * @param url the repository url
+     * @param revision the revision
+     * @param weights the weight of every path changed in the revision
+     * @throws java.io.IOException when the cache cannot be written
+     */
+    public synchronized void put(String url, String revision, Map<String, Integer> weights) throws IOException{
+        open(url).put(revision, weights);
+    }
+    /**
+     * closes the open weight files.
+     */
+    public synchronized void close(){
+        for(RepositoryFile r : repositories.values()){
+            r.close();
+        }
+        repositories.clear();
+    }
+    /**
+     * drops the weights of every repository.
+     * @throws java.io.IOException when a file cannot be deleted
+     */
+    public synchronized void clear() throws IOException{
+        close();
+        File[] files = directory.listFiles();
+        if(files == null){
+            return;
+        }
+        for(File f : files){
+            if(f.getName().endsWith(SUFFIX) && !f.delete()){
+                throw new IOException("cannot delete " + f);
+            }
+        }
+    }
+
+    private RepositoryFile open(String url) throws IOException{
+        RepositoryFile r = repositories.get(url);
+        if(r == null){
+            r = new RepositoryFile(new File(directory, fileName(url)), url);
+            repositories.put(url, r);
+        }
+        return r;
+    }
+
+    private static String fileName(String url) throws IOException{
+        try {
+            byte[] hash = MessageDigest.getInstance("SHA-1").digest(url.getBytes("UTF-8"));
+            StringBuilder sb = new StringBuilder(hash.length * 2 + SUFFIX.length());
+            for(byte b : hash){
+                sb.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+            }
+            return sb.append(SUFFIX).toString();
+        } catch (NoSuchAlgorithmException ex) {
+            throw new IOException("SHA-1 is not available");
+        }
+    }
+
+    /**
+     * the weight file of one repository: a header and records of the form
+     * length, revision, path count, (path, weight)*.
+     */
+    private static class RepositoryFile {
+        private final File file;
+        private final Map<String, Long> offsets = new HashMap<String, Long>();
+        private RandomAccessFile raf;
+
+        RepositoryFile(File file, String url) throws IOException{
+            this.file = file;
+            long end = file.isFile() ? scan(url) : -1;
+            raf = new RandomAccessFile(file, "rw");
+            if(end < 0){
+                offsets.clear();
+                raf.setLength(0);
+                raf.writeInt(MAGIC);
+                raf.writeInt(VERSION);
+                raf.writeUTF(url);
+            }else if(end < raf.length()){
+                LOGGER.log(Level.WARNING, "dropping the incomplete end of {0}", file);
+                raf.setLength(end);
+            }
+        }
+
+        /**
+         * reads the offsets of the records.
+         * @return the end of the last complete record, -1 if the file
+         *          can't be used
+         */
+        private long scan(String url){
+            try {
+                DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 1 << 16));
+                try {
+                    if(in.readInt() != MAGIC || in.readInt() != VERSION || !in.readUTF().equals(url)){
+                        LOGGER.log(Level.WARNING, "ignoring {0}, it is not a weight file of {1}", new Object[]{file, url});
+                        return -1;
+                    }
+                    long offset = headerSize(url);
+                    long fileLength = file.length();
+                    while(true){
+                        int length;
+                        try {
+                            length = in.readInt();
+                        } catch (EOFException ex) {
+                            return offset;
+                        }
+                        if(length < 2 || offset + 4 + length > fileLength){
+                            return offset;
+                        }
+                        byte[] record = new byte[length];
+                        try {
+                            in.readFully(record);
+                        } catch (EOFException ex) {
+                            return offset;
+                        }
+                        String revision = new DataInputStream(new ByteArrayInputStream(record)).readUTF();
+                        offsets.put(revision, Long.valueOf(offset));
+                        offset += 4 + length;
+                    }
+                } finally {
+                    in.close();
+                }
+            } catch (IOException ex) {
+                LOGGER.log(Level.WARNING, "ignoring unreadable {0}: {1}", new Object[]{file, ex.getMessage()});
+                return -1;
+            }
+        }
+
+        private static long headerSize(String url) throws IOException{
+            DataOutputStream out = new DataOutputStream(new ByteArrayOutputStream());
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeUTF(url);
+            return out.size();
+        }
+
+        Map<String, Integer> get(String revision) throws IOException{
+            Long offset = offsets.get(revision);
+            if(offset == null){
+                return null;
+            }
+            raf.seek(offset.longValue());
+            byte[] record = new byte[raf.readInt()];
+            raf.readFully(record);
+            DataInputStream in = new DataInputStream(new ByteArrayInputStream(record));
+            in.readUTF();
+            int count = in.readInt();
+            Map<String, Integer> weights = new LinkedHashMap<String, Integer>(count * 2);
+            for(int i = 0; i < count; i++){
+                String path = in.readUTF();
+                weights.put(path, Integer.valueOf(in.readInt()));
+            }
+            return weights;
+        }
+
+        void put(String revision, Map<String, Integer> weights) throws IOException{
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream(64 + weights.size() * 64);
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.writeInt(0); // the length, filled in below
+            out.writeUTF(revision);
+            out.writeInt(weights.size());
+            for(Map.Entry<String, Integer> e : weights.entrySet()){
+                out.writeUTF(e.getKey());
+                out.writeInt(e.getValue().intValue());
+            }
+            out.close();
+            byte[] record = bytes.toByteArray();
+            int length = record.length - 4;
+            record[0] = (byte)(length >>> 24);
+            record[1] = (byte)(length >>> 16);
+            record[2] = (byte)(length >>> 8);
+            record[3] = (byte)length;
+            long offset = raf.length();
+            raf.seek(offset);
+            raf.write(record);
+            offsets.put(revision, Long.valueOf(offset));
+        }
+
+        void close(){
+            try {
+                raf.close();
+            } catch (IOException ex) {
+                LOGGER.log(Level.FINE, null, ex);
+            }
+        }
+    }
+}